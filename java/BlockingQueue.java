@@ -1,21 +1,31 @@
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Fixed size Bounded Queue.
+ *
+ * Values are kept unboxed in a circular int array. Besides single element offer/poll, batch operations move many
+ * elements per monitor acquisition and wake up waiting threads once per batch, and only if some thread on the other
+ * side is actually waiting.
  */
 public class BlockingQueue {
 
     private int capacity;
     private int size;
 
-    private List<Integer> list;
+    // circular buffer, head is index of oldest element
+    private int[] elements;
+    private int head;
+
+    // threads currently waiting for room or for elements, nobody needs to be notified while these are zero
+    private int waitingProducers;
+    private int waitingConsumers;
 
     public BlockingQueue(int capacity) {
         this.capacity = capacity;
         this.size = 0;
 
-        this.list = new LinkedList<>();
+        this.elements = new int[capacity];
+        this.head = 0;
     }
 
     /**
@@ -26,17 +36,22 @@ public class BlockingQueue {
         // block if queue is full
         while (size == capacity) {
             System.out.println("Blocking - Queue is full");
+            waitingProducers++;
             try {
                 wait();
             } catch (InterruptedException interruptedException) {
                 interruptedException.printStackTrace();
+            } finally {
+                waitingProducers--;
             }
         }
 
-        list.add(value);
+        elements[(head + size) % capacity] = value;
         size++;
 
-        notifyAll();
+        if (waitingConsumers > 0) {
+            notifyAll();
+        }
     }
 
     /**
@@ -46,21 +61,132 @@ public class BlockingQueue {
     public synchronized int poll() {
         while (size == 0) {
             System.out.println("Blocking - Queue is empty");
+            waitingConsumers++;
             try {
                 wait();
             } catch (InterruptedException interruptedException) {
                 interruptedException.printStackTrace();
+            } finally {
+                waitingConsumers--;
             }
         }
 
-        int value = list.remove(0);
+        int value = elements[head];
+        head = (head + 1) % capacity;
         size--;
 
-        notifyAll();
+        if (waitingProducers > 0) {
+            notifyAll();
+        }
 
         return value;
     }
 
+    /**
+     * Add all values to queue in order. Blocks while queue is full, copying as many values as fit every time it gets
+     * the monitor. If interrupted, values copied so far stay in queue.
+     *
+     */
+    public synchronized void offerAll(int[] src) throws InterruptedException {
+        int index = 0;
+
+        while (index < src.length) {
+            while (size == capacity) {
+                waitingProducers++;
+                try {
+                    wait();
+                } finally {
+                    waitingProducers--;
+                }
+            }
+
+            int count = Math.min(capacity - size, src.length - index);
+            copyIn(src, index, count);
+            index += count;
+
+            if (waitingConsumers > 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Remove up to max oldest elements into dst without blocking. Returns number of elements removed.
+     *
+     */
+    public synchronized int drainTo(int[] dst, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Invalid max: " + max);
+        }
+
+        return copyOut(dst, Math.min(max, dst.length));
+    }
+
+    /**
+     * Remove between min and max oldest elements into dst. Blocks until at least min elements are available or
+     * timeout elapses, then takes everything available up to max. Returns number of elements removed, which is less
+     * than min only on timeout. min is capped at capacity, since queue can never hold more.
+     *
+     */
+    public synchronized int poll(int[] dst, int min, int max, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (min < 0 || max < 0) {
+            throw new IllegalArgumentException("Invalid min or max: " + min + ", " + max);
+        }
+
+        max = Math.min(max, dst.length);
+        min = Math.min(min, Math.min(max, capacity));
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (size < min) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+
+            waitingConsumers++;
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } finally {
+                waitingConsumers--;
+            }
+        }
+
+        return copyOut(dst, max);
+    }
+
+    private void copyIn(int[] src, int from, int count) {
+        int tail = (head + size) % capacity;
+
+        // at most two copies, up to end of array and then wrapping around to its start
+        int first = Math.min(count, capacity - tail);
+        System.arraycopy(src, from, elements, tail, first);
+        System.arraycopy(src, from + first, elements, 0, count - first);
+
+        size += count;
+    }
+
+    private int copyOut(int[] dst, int max) {
+        int count = Math.min(max, size);
+        if (count == 0) {
+            return 0;
+        }
+
+        int first = Math.min(count, capacity - head);
+        System.arraycopy(elements, head, dst, 0, first);
+        System.arraycopy(elements, 0, dst, first, count - first);
+
+        head = (head + count) % capacity;
+        size -= count;
+
+        if (waitingProducers > 0) {
+            notifyAll();
+        }
+
+        return count;
+    }
+
     public static void main(String[] args) {
         System.out.println("Blocking Queue");
 
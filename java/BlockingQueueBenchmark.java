@@ -0,0 +1,455 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput benchmark of bounded int queues with different numbers of producer and consumer threads.
+ *
+ * Every run moves a fixed number of ints from producers to consumers through a queue of capacity 1024 and reports
+ * million transfers per second. Compared queues:
+ * - {@link BlockingQueue}, the synchronized wait/notifyAll queue. Its "Blocking" messages are written to a discarding
+ *   stream while it runs, so the time to format them is included but the console is not flooded.
+ * - {@link ArrayBlockingQueue} of boxed Integers
+ * - {@link MpmcIntRingQueue} with each of its wait strategies
+ *
+ * Second part measures batch operations of {@link BlockingQueue}: one producer calling offerAll and one consumer
+ * calling poll(dst, 1, batch, ...) with batch sizes from 1 to 1024, reported as nanoseconds per element.
+ *
+ * Third part runs 64 producers against 64 consumers on {@link BlockingQueue} and {@link TwoLockBlockingQueue} and
+ * reports voluntary context switches of all benchmark threads, read from /proc on Linux, next to throughput.
+ *
+ * SPSC part runs one producer against one consumer and compares {@link SpscIntQueue} with the general queues the
+ * same way. Java cannot pin threads to cores, so for stable SPSC numbers start the JVM under taskset with two
+ * dedicated cores.
+ *
+ * Durable part runs one producer against one consumer on {@link MappedIntQueue} in a temporary directory, without
+ * syncing and with a group fsync every 65536 and every 1024 elements, next to the in memory {@link BlockingQueue}.
+ *
+ * Run with: java BlockingQueueBenchmark [messages]
+ *
+ * @author Prabhash Rathore
+ */
+public class BlockingQueueBenchmark {
+
+    private static final int CAPACITY = 1024;
+    private static final int[][] THREAD_PAIRS = {{1, 1}, {2, 2}, {4, 4}, {8, 8}};
+    private static final int[] BATCH_SIZES = {1, 4, 16, 64, 256, 1024};
+
+    /**
+     * Minimal queue contract shared by all benchmarked queues.
+     */
+    public interface IntQueue {
+        void offer(int value) throws InterruptedException;
+
+        int poll() throws InterruptedException;
+    }
+
+    public static IntQueue synchronizedQueue() {
+        BlockingQueue queue = new BlockingQueue(CAPACITY);
+
+        return new IntQueue() {
+            @Override
+            public void offer(int value) {
+                queue.offer(value);
+            }
+
+            @Override
+            public int poll() {
+                return queue.poll();
+            }
+        };
+    }
+
+    public static IntQueue twoLockQueue() {
+        TwoLockBlockingQueue queue = new TwoLockBlockingQueue(CAPACITY);
+
+        return new IntQueue() {
+            @Override
+            public void offer(int value) throws InterruptedException {
+                queue.offer(value);
+            }
+
+            @Override
+            public int poll() throws InterruptedException {
+                return queue.poll();
+            }
+        };
+    }
+
+    public static IntQueue arrayBlockingQueue() {
+        ArrayBlockingQueue<Integer> queue = new ArrayBlockingQueue<>(CAPACITY);
+
+        return new IntQueue() {
+            @Override
+            public void offer(int value) throws InterruptedException {
+                queue.put(value);
+            }
+
+            @Override
+            public int poll() throws InterruptedException {
+                return queue.take();
+            }
+        };
+    }
+
+    public static IntQueue ringQueue(MpmcIntRingQueue.WaitStrategy waitStrategy) {
+        MpmcIntRingQueue queue = new MpmcIntRingQueue(CAPACITY, waitStrategy);
+
+        return new IntQueue() {
+            @Override
+            public void offer(int value) throws InterruptedException {
+                queue.offer(value);
+            }
+
+            @Override
+            public int poll() throws InterruptedException {
+                return queue.poll();
+            }
+        };
+    }
+
+    public static IntQueue spscQueue() {
+        SpscIntQueue queue = new SpscIntQueue(CAPACITY);
+
+        return new IntQueue() {
+            @Override
+            public void offer(int value) throws InterruptedException {
+                queue.offer(value);
+            }
+
+            @Override
+            public int poll() throws InterruptedException {
+                return queue.poll();
+            }
+        };
+    }
+
+    /**
+     * Durable queue in given directory. Consumer acknowledges about every 1024th element, which reclaims segments.
+     *
+     */
+    public static IntQueue mappedQueue(Path directory, int syncEvery) throws IOException {
+        MappedIntQueue queue = new MappedIntQueue(directory, CAPACITY, 1 << 16, syncEvery);
+
+        return new IntQueue() {
+            @Override
+            public void offer(int value) throws InterruptedException {
+                try {
+                    queue.offer(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public int poll() throws InterruptedException {
+                try {
+                    int value = queue.poll();
+                    if ((value & 1023) == 0) {
+                        queue.ack();
+                    }
+
+                    return value;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Move given number of messages through queue and return throughput in transfers per second.
+     *
+     */
+    public static double measure(IntQueue queue, int producers, int consumers, int messages)
+            throws InterruptedException {
+        int perProducer = messages / producers;
+        int perConsumer = messages / consumers;
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(i);
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Producer" + p));
+        }
+
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perConsumer; i++) {
+                        queue.poll();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Consumer" + c));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        return (double) perProducer * producers * 1e9 / elapsed;
+    }
+
+    /**
+     * Same as {@link #measure} but also counts voluntary context switches of benchmark threads. Threads are kept alive
+     * until switches are counted since /proc only lists live threads. Returns throughput and context switches.
+     *
+     */
+    public static double[] measureContextSwitches(IntQueue queue, int producers, int consumers, int messages)
+            throws InterruptedException {
+        int perProducer = messages / producers;
+        int perConsumer = messages / consumers;
+
+        CountDownLatch ready = new CountDownLatch(producers + consumers);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(producers + consumers);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < producers + consumers; t++) {
+            boolean producer = t < producers;
+            threads.add(new Thread(() -> {
+                try {
+                    ready.countDown();
+                    start.await();
+
+                    if (producer) {
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.offer(i);
+                        }
+                    } else {
+                        for (int i = 0; i < perConsumer; i++) {
+                            queue.poll();
+                        }
+                    }
+
+                    done.countDown();
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }, (producer ? "Producer" : "Consumer") + t));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        ready.await();
+
+        long switchesBefore = voluntaryContextSwitches();
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        long switchesAfter = voluntaryContextSwitches();
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        double throughput = (double) perProducer * producers * 1e9 / elapsed;
+        double switches = switchesBefore < 0 ? -1 : switchesAfter - switchesBefore;
+
+        return new double[]{throughput, switches};
+    }
+
+    /**
+     * Sum of voluntary context switches of all live threads of this process, -1 where /proc is not available.
+     *
+     */
+    private static long voluntaryContextSwitches() {
+        File[] tasks = new File("/proc/self/task").listFiles();
+        if (tasks == null) {
+            return -1;
+        }
+
+        long total = 0;
+        for (File task : tasks) {
+            try {
+                for (String line : Files.readAllLines(new File(task, "status").toPath())) {
+                    if (line.startsWith("voluntary_ctxt_switches")) {
+                        total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                    }
+                }
+            } catch (IOException e) {
+                // thread exited while reading, e.g. a JIT compiler thread
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Move given number of messages through {@link BlockingQueue} in batches and return nanoseconds per element.
+     *
+     */
+    public static double measureBatch(int batchSize, int messages) throws InterruptedException {
+        BlockingQueue queue = new BlockingQueue(CAPACITY);
+        int batches = messages / batchSize;
+
+        Thread producer = new Thread(() -> {
+            int[] batch = new int[batchSize];
+            try {
+                for (int b = 0; b < batches; b++) {
+                    for (int i = 0; i < batchSize; i++) {
+                        batch[i] = b * batchSize + i;
+                    }
+
+                    queue.offerAll(batch);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Producer");
+
+        Thread consumer = new Thread(() -> {
+            int[] batch = new int[batchSize];
+            long remaining = (long) batches * batchSize;
+            try {
+                while (remaining > 0) {
+                    remaining -= queue.poll(batch, 1, batchSize, 1, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Consumer");
+
+        long begin = System.nanoTime();
+        producer.start();
+        consumer.start();
+        producer.join();
+        consumer.join();
+        long elapsed = System.nanoTime() - begin;
+
+        return (double) elapsed / ((long) batches * batchSize);
+    }
+
+    private static double measureQuietly(IntQueue queue, int producers, int consumers, int messages)
+            throws InterruptedException {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return measure(queue, producers, consumers, messages);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-10s %16s %16s %16s %16s %16s%n", "P x C", "Synchronized", "ArrayBlocking",
+                "Ring SPIN", "Ring YIELD", "Ring PARK");
+
+        for (int[] pair : THREAD_PAIRS) {
+            int producers = pair[0];
+            int consumers = pair[1];
+
+            double synchronizedQueue = measureQuietly(synchronizedQueue(), producers, consumers, messages);
+            double arrayBlocking = measure(arrayBlockingQueue(), producers, consumers, messages);
+            double spin = measure(ringQueue(MpmcIntRingQueue.WaitStrategy.SPIN), producers, consumers, messages);
+            double yield = measure(ringQueue(MpmcIntRingQueue.WaitStrategy.YIELD), producers, consumers, messages);
+            double park = measure(ringQueue(MpmcIntRingQueue.WaitStrategy.PARK), producers, consumers, messages);
+
+            System.out.printf("%-10s %16.2f %16.2f %16.2f %16.2f %16.2f%n", producers + " x " + consumers,
+                    synchronizedQueue / 1e6, arrayBlocking / 1e6, spin / 1e6, yield / 1e6, park / 1e6);
+        }
+
+        System.out.println("(million transfers per second)");
+
+        System.out.printf("%n%-10s %16s%n", "Batch", "ns per element");
+
+        PrintStream out = System.out;
+        for (int batchSize : BATCH_SIZES) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            double nanosPerElement;
+            try {
+                nanosPerElement = measureBatch(batchSize, messages);
+            } finally {
+                System.setOut(out);
+            }
+
+            System.out.printf("%-10d %16.1f%n", batchSize, nanosPerElement);
+        }
+
+        System.out.printf("%n%-14s %16s %18s%n", "64 x 64", "Mtransfers/s", "Context switches");
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        double[] monitor;
+        try {
+            monitor = measureContextSwitches(synchronizedQueue(), 64, 64, messages);
+        } finally {
+            System.setOut(out);
+        }
+        double[] twoLock = measureContextSwitches(twoLockQueue(), 64, 64, messages);
+
+        System.out.printf("%-14s %16.2f %18.0f%n", "Synchronized", monitor[0] / 1e6, monitor[1]);
+        System.out.printf("%-14s %16.2f %18.0f%n", "TwoLock", twoLock[0] / 1e6, twoLock[1]);
+
+        System.out.printf("%n%-14s %16s %18s%n", "SPSC 1 x 1", "Mtransfers/s", "Context switches");
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            monitor = measureContextSwitches(synchronizedQueue(), 1, 1, messages);
+        } finally {
+            System.setOut(out);
+        }
+        twoLock = measureContextSwitches(twoLockQueue(), 1, 1, messages);
+        double[] ring = measureContextSwitches(ringQueue(MpmcIntRingQueue.WaitStrategy.PARK), 1, 1, messages);
+        double[] spsc = measureContextSwitches(spscQueue(), 1, 1, messages);
+
+        System.out.printf("%-14s %16.2f %18.0f%n", "Synchronized", monitor[0] / 1e6, monitor[1]);
+        System.out.printf("%-14s %16.2f %18.0f%n", "TwoLock", twoLock[0] / 1e6, twoLock[1]);
+        System.out.printf("%-14s %16.2f %18.0f%n", "Ring PARK", ring[0] / 1e6, ring[1]);
+        System.out.printf("%-14s %16.2f %18.0f%n", "Spsc", spsc[0] / 1e6, spsc[1]);
+
+        System.out.printf("%n%-14s %16s%n", "Durable 1 x 1", "Mtransfers/s");
+        System.out.printf("%-14s %16.2f%n", "Synchronized", measureQuietly(synchronizedQueue(), 1, 1, messages) / 1e6);
+
+        for (int syncEvery : new int[]{0, 65536, 1024}) {
+            Path directory = Files.createTempDirectory("mapped-int-queue");
+            try {
+                double mapped = measure(mappedQueue(directory, syncEvery), 1, 1, messages);
+                System.out.printf("%-14s %16.2f%n", syncEvery == 0 ? "Mapped" : "Mapped " + syncEvery, mapped / 1e6);
+            } finally {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                    for (Path file : files) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(directory);
+            }
+        }
+    }
+}
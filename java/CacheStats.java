@@ -0,0 +1,338 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Statistics recorder for a cache: hits, misses, puts, evictions, loads and latency histograms of get and put.
+ *
+ * Counters are {@link LongAdder}s, which stripe updates over cells so that threads recording at the same time do not
+ * contend on a single cache line. Latencies go to {@link LatencyHistogram}s with HDR style log-linear buckets. Reading
+ * the clock costs about as much as a cache hit, so by default only 1 in 8 operations is timed; counts are always
+ * exact. A cache without a recorder skips all of this behind a single null check, see {@link ConcurrentLRUCache}.
+ *
+ * Current values can be read with {@link #snapshot()} or over JMX after {@link #registerMBean(String)}.
+ *
+ * @author Prabhash Rathore
+ */
+public class CacheStats implements CacheStatsMXBean {
+
+    /**
+     * Histogram of non negative long values with about 3% precision over the whole long range.
+     *
+     * Values below 64 get a bucket each. Above that every power of two range is split into 32 linear sub buckets,
+     * the same bucketing HdrHistogram uses with 2 significant digits. Counts are striped by thread like LongAdder
+     * and summed up when percentiles are read.
+     */
+    public static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray[] stripes;
+
+        public LatencyHistogram() {
+            int stripeCount = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+            this.stripes = new AtomicLongArray[stripeCount];
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new AtomicLongArray(BUCKETS);
+            }
+        }
+
+        public void record(long value) {
+            int stripe = (int) Thread.currentThread().threadId() & (stripes.length - 1);
+            stripes[stripe].getAndIncrement(bucketIndex(Math.max(0, value)));
+        }
+
+        /**
+         * Value at given percentile (0 to 100), reported as lower bound of the bucket it falls in.
+         *
+         */
+        public long percentile(double percentile) {
+            long[] counts = counts();
+
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return bucketValue(i);
+                }
+            }
+
+            return bucketValue(counts.length - 1);
+        }
+
+        public long count() {
+            long total = 0;
+            for (long count : counts()) {
+                total += count;
+            }
+
+            return total;
+        }
+
+        private long[] counts() {
+            long[] counts = new long[BUCKETS];
+            for (AtomicLongArray stripe : stripes) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts[i] += stripe.get(i);
+                }
+            }
+
+            return counts;
+        }
+
+        private static int bucketIndex(long value) {
+            int msb = 63 - Long.numberOfLeadingZeros(value | 1);
+            if (msb < SUB_BUCKET_BITS) {
+                return (int) value;
+            }
+
+            int shift = msb - SUB_BUCKET_BITS;
+            return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        private static long bucketValue(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+
+            int shift = (index >> SUB_BUCKET_BITS) - 1;
+            return ((long) (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+        }
+    }
+
+    /**
+     * Point in time copy of all statistics.
+     */
+    public static class Snapshot {
+        private final long hits;
+        private final long misses;
+        private final long puts;
+        private final long evictions;
+        private final long loads;
+        private final long loadFailures;
+        private final long totalLoadNanos;
+        private final long getP50;
+        private final long getP99;
+        private final long getP999;
+        private final long putP50;
+        private final long putP99;
+        private final long putP999;
+
+        private Snapshot(CacheStats stats) {
+            this.hits = stats.hits.sum();
+            this.misses = stats.misses.sum();
+            this.puts = stats.puts.sum();
+            this.evictions = stats.evictions.sum();
+            this.loads = stats.loads.sum();
+            this.loadFailures = stats.loadFailures.sum();
+            this.totalLoadNanos = stats.totalLoadNanos.sum();
+            this.getP50 = stats.getLatency.percentile(50);
+            this.getP99 = stats.getLatency.percentile(99);
+            this.getP999 = stats.getLatency.percentile(99.9);
+            this.putP50 = stats.putLatency.percentile(50);
+            this.putP99 = stats.putLatency.percentile(99);
+            this.putP999 = stats.putLatency.percentile(99.9);
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        public double averageLoadNanos() {
+            long attempts = loads + loadFailures;
+            return attempts == 0 ? 0 : (double) totalLoadNanos / attempts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits: %d, misses: %d, hitRate: %.4f, puts: %d, evictions: %d, loads: %d, "
+                            + "loadFailures: %d, avgLoadNanos: %.0f, get p50/p99/p99.9 ns: %d/%d/%d, "
+                            + "put p50/p99/p99.9 ns: %d/%d/%d",
+                    hits, misses, hitRate(), puts, evictions, loads, loadFailures, averageLoadNanos(),
+                    getP50, getP99, getP999, putP50, putP99, putP999);
+        }
+    }
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+
+    private final int latencySampleMask;
+
+    public CacheStats() {
+        this(8);
+    }
+
+    /**
+     * @param latencySampleRate time one in this many operations, must be a power of two, 1 times every operation
+     */
+    public CacheStats(int latencySampleRate) {
+        if (latencySampleRate <= 0 || Integer.bitCount(latencySampleRate) != 1) {
+            throw new IllegalArgumentException("Sample rate must be a power of two: " + latencySampleRate);
+        }
+
+        this.latencySampleMask = latencySampleRate - 1;
+    }
+
+    /**
+     * Whether caller should time the operation it is about to run.
+     *
+     */
+    public boolean sampleLatency() {
+        return latencySampleMask == 0 || (ThreadLocalRandom.current().nextInt() & latencySampleMask) == 0;
+    }
+
+    public void recordHits(int count) {
+        hits.add(count);
+    }
+
+    public void recordMisses(int count) {
+        misses.add(count);
+    }
+
+    public void recordGet(boolean hit) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    public void recordGetLatency(long latencyNanos) {
+        getLatency.record(latencyNanos);
+    }
+
+    public void recordPut() {
+        puts.increment();
+    }
+
+    public void recordPutLatency(long latencyNanos) {
+        putLatency.record(latencyNanos);
+    }
+
+    public void recordPuts(int count) {
+        puts.add(count);
+    }
+
+    public void recordEvictions(long count) {
+        evictions.add(count);
+    }
+
+    public void recordLoad(long loadNanos) {
+        loads.increment();
+        totalLoadNanos.add(loadNanos);
+    }
+
+    public void recordLoadFailure(long loadNanos) {
+        loadFailures.increment();
+        totalLoadNanos.add(loadNanos);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Register this recorder with platform MBean server as CodeSnippets:type=CacheStats,name=[name].
+     *
+     */
+    public void registerMBean(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, new ObjectName("CodeSnippets:type=CacheStats,name=" + ObjectName.quote(name)));
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public long getPutCount() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return loadFailures.sum();
+    }
+
+    @Override
+    public double getAverageLoadNanos() {
+        long attempts = loads.sum() + loadFailures.sum();
+        return attempts == 0 ? 0 : (double) totalLoadNanos.sum() / attempts;
+    }
+
+    @Override
+    public long getGetLatencyP50Nanos() {
+        return getLatency.percentile(50);
+    }
+
+    @Override
+    public long getGetLatencyP99Nanos() {
+        return getLatency.percentile(99);
+    }
+
+    @Override
+    public long getGetLatencyP999Nanos() {
+        return getLatency.percentile(99.9);
+    }
+
+    @Override
+    public long getPutLatencyP50Nanos() {
+        return putLatency.percentile(50);
+    }
+
+    @Override
+    public long getPutLatencyP99Nanos() {
+        return putLatency.percentile(99);
+    }
+
+    @Override
+    public long getPutLatencyP999Nanos() {
+        return putLatency.percentile(99.9);
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * JMX view of {@link CacheStats}. Latencies are in nanoseconds.
+ *
+ * @author Prabhash Rathore
+ */
+public interface CacheStatsMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getPutCount();
+
+    long getEvictionCount();
+
+    long getLoadCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadNanos();
+
+    long getGetLatencyP50Nanos();
+
+    long getGetLatencyP99Nanos();
+
+    long getGetLatencyP999Nanos();
+
+    long getPutLatencyP50Nanos();
+
+    long getPutLatencyP99Nanos();
+
+    long getPutLatencyP999Nanos();
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Replays access traces against {@link LRUCache} with and without {@link WTinyLfuPolicy} and reports hit rates.
+ *
+ * On every access the key is looked up and, on a miss, inserted into cache like a read through cache would do.
+ * Without arguments three synthetic traces are replayed:
+ * - zipf: skewed popularity, the classic cache friendly workload
+ * - zipf + scans: same popularity with a long sequential sweep of one time keys every few thousand accesses,
+ *   similar to our batch jobs
+ * - loop: a cyclic sweep slightly larger than cache, the worst case for LRU
+ *
+ * A trace file with one integer key per line can be given as first argument instead.
+ *
+ * Run with: java CacheTraceReplay [traceFile]
+ *
+ * @author Prabhash Rathore
+ */
+public class CacheTraceReplay {
+
+    private static final int TRACE_LENGTH = 2_000_000;
+    private static final int KEY_SPACE = 100_000;
+    private static final int[] CAPACITIES = {500, 2_000, 10_000};
+
+    /**
+     * Replay trace and return hit rate in percent.
+     *
+     */
+    public static double replay(LRUCache cache, int[] trace) {
+        long hits = 0;
+
+        for (int key : trace) {
+            if (cache.get(key) != -1) {
+                hits++;
+            } else {
+                // values must not be -1 since that means miss
+                cache.put(key, key & Integer.MAX_VALUE);
+            }
+        }
+
+        return hits * 100.0 / trace.length;
+    }
+
+    public static int[] zipfTrace(int length, int keySpace, double exponent, long seed) {
+        double[] cumulative = new double[keySpace];
+
+        double sum = 0;
+        for (int i = 0; i < keySpace; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+
+        Random random = new Random(seed);
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            double target = random.nextDouble() * sum;
+
+            // binary search the first rank whose cumulative weight covers target
+            int low = 0;
+            int high = keySpace - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            trace[i] = low;
+        }
+
+        return trace;
+    }
+
+    /**
+     * Overwrite parts of given trace with sequential sweeps of keys which are never seen again.
+     *
+     */
+    public static int[] withScans(int[] trace, int scanLength, int scanEvery) {
+        int[] result = trace.clone();
+        int nextScanKey = Integer.MAX_VALUE / 2;
+
+        for (int start = scanEvery; start + scanLength <= result.length; start += scanEvery + scanLength) {
+            for (int i = 0; i < scanLength; i++) {
+                result[start + i] = nextScanKey++;
+            }
+        }
+
+        return result;
+    }
+
+    public static int[] loopTrace(int length, int loopSize) {
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            trace[i] = i % loopSize;
+        }
+
+        return trace;
+    }
+
+    public static int[] readTrace(String file) throws IOException {
+        try (Stream<String> lines = Files.lines(Paths.get(file))) {
+            return lines.map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .mapToInt(Integer::parseInt)
+                    .toArray();
+        }
+    }
+
+    private static void report(String name, int[] trace) {
+        System.out.println("\nTrace: " + name + " (" + trace.length + " accesses)");
+        System.out.printf("%-10s %12s %14s%n", "Capacity", "LRU hit %", "W-TinyLFU hit %");
+
+        for (int capacity : CAPACITIES) {
+            double lru = replay(new LRUCache(capacity), trace);
+            double tinyLfu = replay(new LRUCache(capacity, new WTinyLfuPolicy(capacity)), trace);
+
+            System.out.printf("%-10d %12.2f %14.2f%n", capacity, lru, tinyLfu);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            report(args[0], readTrace(args[0]));
+            return;
+        }
+
+        int[] zipf = zipfTrace(TRACE_LENGTH, KEY_SPACE, 0.9, 42);
+
+        report("zipf", zipf);
+        report("zipf + scans", withScans(zipf, 20_000, 50_000));
+        report("loop", loopTrace(TRACE_LENGTH, CAPACITIES[1] + CAPACITIES[1] / 10));
+    }
+}
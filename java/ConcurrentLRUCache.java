@@ -0,0 +1,490 @@
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Thread safe LRU Cache which stores integers as data.
+ *
+ * Key space is partitioned by hash into independently locked segments. Each segment is a plain {@link LRUCache}
+ * with its own doubly linked list and a share of total capacity, so threads working on keys of different segments
+ * never contend with each other. Eviction is per segment, i.e. the least recently used entry of the segment which
+ * overflows is removed, which makes the overall order an approximation of global LRU.
+ *
+ * Cache can also load missing values itself through {@link #get(int, IntUnaryOperator)}. Concurrent misses on same
+ * key are coalesced so that only one thread runs the loader while others wait for its result. When entries expire,
+ * a hit on an entry close to its expiry returns the cached value right away and reloads it in background, so hot
+ * keys never go through a blocking miss.
+ *
+ * Optionally a {@link CacheStats} recorder collects hit, miss, put, eviction and load counts along with get/put
+ * latencies. Without a recorder those code paths are skipped entirely.
+ *
+ * @author Prabhash Rathore
+ */
+public class ConcurrentLRUCache {
+
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    private final LRUCache[] segments;
+    private final int segmentMask;
+
+    private final int capacity;
+
+    // loads in progress per key, shared by all threads missing on that key
+    private final ConcurrentHashMap<Integer, CompletableFuture<Integer>> inFlightLoads;
+    private final long refreshAheadNanos;
+    private final Executor refreshExecutor;
+
+    // null when statistics are disabled
+    private final CacheStats stats;
+
+    public ConcurrentLRUCache(int capacity) {
+        this(capacity, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public ConcurrentLRUCache(int capacity, CacheStats stats) {
+        this(capacity, 4 * Runtime.getRuntime().availableProcessors(), 0, 0, TimeUnit.NANOSECONDS,
+                ForkJoinPool.commonPool(), stats);
+    }
+
+    public ConcurrentLRUCache(int capacity, int concurrencyLevel) {
+        this(capacity, concurrencyLevel, 0, 0, TimeUnit.NANOSECONDS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param expireAfterWrite time after last write when an entry expires, 0 to disable
+     * @param refreshAhead     a hit on an entry which expires within this time triggers background reload, 0 to
+     *                         disable
+     * @param refreshExecutor  runs background reloads
+     */
+    public ConcurrentLRUCache(int capacity, int concurrencyLevel, long expireAfterWrite, long refreshAhead,
+                              TimeUnit unit, Executor refreshExecutor) {
+        this(capacity, concurrencyLevel, expireAfterWrite, refreshAhead, unit, refreshExecutor, null);
+    }
+
+    /**
+     * @param stats recorder of cache statistics, null to disable statistics
+     */
+    public ConcurrentLRUCache(int capacity, int concurrencyLevel, long expireAfterWrite, long refreshAhead,
+                              TimeUnit unit, Executor refreshExecutor, CacheStats stats) {
+        if (capacity <= 0 || concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity + " or concurrency level: "
+                    + concurrencyLevel);
+        }
+
+        if (refreshAhead < 0 || (refreshAhead > 0 && refreshAhead >= expireAfterWrite)) {
+            throw new IllegalArgumentException("Refresh ahead must be shorter than expiry: " + refreshAhead);
+        }
+
+        // power of two segments so segment index is a mask, every segment needs room for at least one entry
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount < MAX_SEGMENTS && segmentCount * 2 <= capacity) {
+            segmentCount <<= 1;
+        }
+
+        this.capacity = capacity;
+        this.segmentMask = segmentCount - 1;
+        this.segments = new LRUCache[segmentCount];
+
+        int share = capacity / segmentCount;
+        int remainder = capacity % segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new LRUCache(i < remainder ? share + 1 : share, null, expireAfterWrite, 0, unit,
+                    System::nanoTime);
+        }
+
+        this.inFlightLoads = new ConcurrentHashMap<>();
+        this.refreshAheadNanos = unit.toNanos(refreshAhead);
+        this.refreshExecutor = refreshExecutor;
+        this.stats = stats;
+    }
+
+    public int get(int key) {
+        LRUCache segment = segmentFor(key);
+
+        if (stats == null) {
+            synchronized (segment) {
+                return segment.get(key);
+            }
+        }
+
+        boolean timed = stats.sampleLatency();
+        long start = timed ? System.nanoTime() : 0;
+
+        int value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+
+        stats.recordGet(value != -1);
+        if (timed) {
+            stats.recordGetLatency(System.nanoTime() - start);
+        }
+
+        return value;
+    }
+
+    public void put(int key, int value) {
+        LRUCache segment = segmentFor(key);
+
+        if (stats == null) {
+            synchronized (segment) {
+                segment.put(key, value);
+            }
+            return;
+        }
+
+        boolean timed = stats.sampleLatency();
+        long start = timed ? System.nanoTime() : 0;
+
+        long evicted;
+        synchronized (segment) {
+            long evictionCount = segment.getEvictionCount();
+            segment.put(key, value);
+            evicted = segment.getEvictionCount() - evictionCount;
+        }
+
+        stats.recordPut();
+        if (timed) {
+            stats.recordPutLatency(System.nanoTime() - start);
+        }
+
+        if (evicted > 0) {
+            stats.recordEvictions(evicted);
+        }
+    }
+
+    /**
+     * Return cached value of key, loading and caching it with given loader on a miss. If several threads miss on
+     * same key at once, loader runs only once and all of them get its result. Loader must not return -1 since that
+     * denotes a missing value. Exceptions thrown by loader are rethrown to every waiting thread.
+     *
+     */
+    public int get(int key, IntUnaryOperator loader) {
+        LRUCache segment = segmentFor(key);
+
+        boolean timed = stats != null && stats.sampleLatency();
+        long start = timed ? System.nanoTime() : 0;
+
+        int value;
+        boolean refresh = false;
+        synchronized (segment) {
+            value = segment.get(key);
+
+            if (value != -1 && refreshAheadNanos > 0) {
+                refresh = segment.getExpiryTime(key) - System.nanoTime() <= refreshAheadNanos;
+            }
+        }
+
+        if (stats != null) {
+            stats.recordGet(value != -1);
+            if (timed) {
+                stats.recordGetLatency(System.nanoTime() - start);
+            }
+        }
+
+        if (value != -1) {
+            if (refresh) {
+                refreshAsync(key, loader);
+            }
+
+            return value;
+        }
+
+        CompletableFuture<Integer> load = new CompletableFuture<>();
+        CompletableFuture<Integer> inFlight = inFlightLoads.putIfAbsent(key, load);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+
+        // a load may have completed between our miss and registering, in which case value is cached by now
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+
+        if (value != -1) {
+            inFlightLoads.remove(key, load);
+            load.complete(value);
+            return value;
+        }
+
+        runLoad(key, loader, load);
+
+        return await(load);
+    }
+
+    /**
+     * Reload key in background unless a load of this key is already in progress.
+     *
+     */
+    private void refreshAsync(int key, IntUnaryOperator loader) {
+        CompletableFuture<Integer> load = new CompletableFuture<>();
+        if (inFlightLoads.putIfAbsent(key, load) != null) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> runLoad(key, loader, load));
+        } catch (Throwable e) {
+            // rejected, entry just expires and gets loaded on next miss
+            inFlightLoads.remove(key, load);
+            load.completeExceptionally(e);
+
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+
+    private void runLoad(int key, IntUnaryOperator loader, CompletableFuture<Integer> load) {
+        long start = stats == null ? 0 : System.nanoTime();
+
+        try {
+            int value = loader.applyAsInt(key);
+
+            if (stats != null) {
+                stats.recordLoad(System.nanoTime() - start);
+            }
+
+            put(key, value);
+            load.complete(value);
+        } catch (Throwable e) {
+            if (stats != null) {
+                stats.recordLoadFailure(System.nanoTime() - start);
+            }
+
+            // waiters must be released whatever the loader threw, errors are passed on to loading thread as well
+            load.completeExceptionally(e);
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        } finally {
+            inFlightLoads.remove(key, load);
+        }
+    }
+
+    private static int await(CompletableFuture<Integer> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Look up all given keys, out[i] receives value of keys[i] or -1 if it is not cached. Keys are grouped by
+     * segment so that each segment lock is taken once per call, and each segment reorders its list once.
+     */
+    public void getAll(int[] keys, int[] out) {
+        int[] order = new int[keys.length];
+        int[] starts = groupBySegment(keys, order);
+
+        for (int segment = 0; segment < segments.length; segment++) {
+            int from = starts[segment];
+            int count = starts[segment + 1] - from;
+            if (count == 0) {
+                continue;
+            }
+
+            int[] segmentKeys = new int[count];
+            for (int i = 0; i < count; i++) {
+                segmentKeys[i] = keys[order[from + i]];
+            }
+
+            int[] segmentOut = new int[count];
+            LRUCache cache = segments[segment];
+            synchronized (cache) {
+                cache.getAll(segmentKeys, segmentOut);
+            }
+
+            for (int i = 0; i < count; i++) {
+                out[order[from + i]] = segmentOut[i];
+            }
+        }
+
+        if (stats != null) {
+            int hits = 0;
+            for (int value : out) {
+                if (value != -1) {
+                    hits++;
+                }
+            }
+
+            stats.recordHits(hits);
+            stats.recordMisses(keys.length - hits);
+        }
+    }
+
+    /**
+     * Add or update all given entries taking each segment lock once. Each segment evicts whatever does not fit in a
+     * single pass.
+     */
+    public void putAll(int[] keys, int[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Keys and values differ in length: " + keys.length + ", "
+                    + values.length);
+        }
+
+        int[] order = new int[keys.length];
+        int[] starts = groupBySegment(keys, order);
+
+        for (int segment = 0; segment < segments.length; segment++) {
+            int from = starts[segment];
+            int count = starts[segment + 1] - from;
+            if (count == 0) {
+                continue;
+            }
+
+            int[] segmentKeys = new int[count];
+            int[] segmentValues = new int[count];
+            for (int i = 0; i < count; i++) {
+                segmentKeys[i] = keys[order[from + i]];
+                segmentValues[i] = values[order[from + i]];
+            }
+
+            LRUCache cache = segments[segment];
+            long evicted;
+            synchronized (cache) {
+                long evictionCount = cache.getEvictionCount();
+                cache.putAll(segmentKeys, segmentValues);
+                evicted = cache.getEvictionCount() - evictionCount;
+            }
+
+            if (stats != null) {
+                stats.recordEvictions(evicted);
+            }
+        }
+
+        if (stats != null) {
+            stats.recordPuts(keys.length);
+        }
+    }
+
+    /**
+     * Counting sort of key positions by segment. Fills order with positions of keys grouped by segment, keeping
+     * original order within a segment, and returns start offset of every segment's group in order.
+     *
+     */
+    private int[] groupBySegment(int[] keys, int[] order) {
+        int[] starts = new int[segments.length + 1];
+        for (int key : keys) {
+            starts[segmentIndex(key) + 1]++;
+        }
+
+        for (int i = 0; i < segments.length; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        int[] next = new int[segments.length];
+        System.arraycopy(starts, 0, next, 0, segments.length);
+        for (int i = 0; i < keys.length; i++) {
+            order[next[segmentIndex(keys[i])]++] = i;
+        }
+
+        return starts;
+    }
+
+    /**
+     * Statistics recorder of this cache or null if statistics are disabled.
+     *
+     */
+    public CacheStats stats() {
+        return stats;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    private LRUCache segmentFor(int key) {
+        return segments[segmentIndex(key)];
+    }
+
+    private int segmentIndex(int key) {
+        // spread bits so that sequential keys land on different segments
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & segmentMask;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+
+        ConcurrentLRUCache cache = new ConcurrentLRUCache(1024, 8, 0, 0, TimeUnit.NANOSECONDS,
+                ForkJoinPool.commonPool(), new CacheStats());
+        System.out.println("Segments: " + cache.segmentCount());
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t * 100;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < offset + 100; i++) {
+                    cache.put(i, i * 10);
+                }
+            }, "Writer" + t);
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int key = 1;
+        int value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        key = 399;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        key = 400;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        int[] keys = {1, 2, 3, 400};
+        int[] values = new int[keys.length];
+        cache.getAll(keys, values);
+        System.out.println("getAll: " + Arrays.toString(values));
+
+        // a herd of threads missing on same key triggers a single load
+        AtomicInteger loads = new AtomicInteger();
+        IntUnaryOperator slowLoader = k -> {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return k * 10;
+        };
+
+        Thread[] herd = new Thread[20];
+        for (int t = 0; t < herd.length; t++) {
+            herd[t] = new Thread(() -> cache.get(7777, slowLoader), "Reader" + t);
+            herd[t].start();
+        }
+
+        for (Thread thread : herd) {
+            thread.join();
+        }
+
+        System.out.println("key: 7777 ;Value: " + cache.get(7777) + " ;Loads: " + loads.get());
+
+        System.out.println("Stats: " + cache.stats().snapshot());
+    }
+}
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput benchmark of thread safe LRU caches as number of threads grows from 1 to 32.
+ *
+ * Each thread runs a mix of gets and puts (80% get by default) on random keys for a fixed duration. Key space is
+ * twice the cache capacity so that gets produce a mix of hits and misses and puts keep evicting entries. Results are
+ * printed as million operations per second for every cache and thread count.
+ *
+ * Second part compares request sized batches against {@link ConcurrentLRUCache}: every request looks up a batch of
+ * random keys and writes back the misses, either key by key or with getAll/putAll. Results are million keys per
+ * second.
+ *
+ * Last part measures the cost of {@link CacheStats}: segmented cache without a recorder, which should match the
+ * first table, against same cache recording counters and sampled latency histograms.
+ *
+ * Run with: java ConcurrentLRUCacheBenchmark [durationMillis] [getPercent]
+ *
+ * @author Prabhash Rathore
+ */
+public class ConcurrentLRUCacheBenchmark {
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int KEY_SPACE = CAPACITY * 2;
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+    private static final int[] BATCH_SIZES = {10, 100, 500};
+
+    /**
+     * Minimal cache contract shared by all benchmarked caches.
+     */
+    public interface IntCache {
+        int get(int key);
+
+        void put(int key, int value);
+    }
+
+    /**
+     * Current way of sharing {@link LRUCache} between threads: one global lock around the whole cache.
+     */
+    public static class GlobalLockLRUCache implements IntCache {
+        private final LRUCache cache;
+
+        public GlobalLockLRUCache(int capacity) {
+            this.cache = new LRUCache(capacity);
+        }
+
+        @Override
+        public synchronized int get(int key) {
+            return cache.get(key);
+        }
+
+        @Override
+        public synchronized void put(int key, int value) {
+            cache.put(key, value);
+        }
+    }
+
+    public static class ReadBufferedCache implements IntCache {
+        private final ReadBufferedLRUCache cache;
+
+        public ReadBufferedCache(int capacity) {
+            this.cache = new ReadBufferedLRUCache(capacity);
+        }
+
+        @Override
+        public int get(int key) {
+            return cache.get(key);
+        }
+
+        @Override
+        public void put(int key, int value) {
+            cache.put(key, value);
+        }
+    }
+
+    public static class SegmentedLRUCache implements IntCache {
+        private final ConcurrentLRUCache cache;
+
+        public SegmentedLRUCache(int capacity) {
+            this.cache = new ConcurrentLRUCache(capacity);
+        }
+
+        public SegmentedLRUCache(int capacity, CacheStats stats) {
+            this.cache = new ConcurrentLRUCache(capacity, stats);
+        }
+
+        @Override
+        public int get(int key) {
+            return cache.get(key);
+        }
+
+        @Override
+        public void put(int key, int value) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * Run the get/put mix on given cache with given number of threads and return throughput in operations per
+     * second.
+     *
+     */
+    public static double measure(IntCache cache, int threadCount, long durationMillis, int getPercent)
+            throws InterruptedException {
+        // warm up cache so that gets do not start on an empty cache
+        for (int key = 0; key < CAPACITY; key++) {
+            cache.put(key, key);
+        }
+
+        LongAdder operations = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+
+        int getThreshold = getPercent * 1024 / 100;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int seed = 0x9E3779B9 * (t + 1);
+            Thread thread = new Thread(() -> {
+                int random = seed;
+                long count = 0;
+
+                try {
+                    start.await();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+
+                while (running.get()) {
+                    // xorshift, avoids contention on a shared random generator
+                    random ^= random << 13;
+                    random ^= random >>> 17;
+                    random ^= random << 5;
+
+                    int key = (random & Integer.MAX_VALUE) % KEY_SPACE;
+                    if (((random >>> 20) & 1023) < getThreshold) {
+                        cache.get(key);
+                    } else {
+                        cache.put(key, random);
+                    }
+
+                    count++;
+                }
+
+                operations.add(count);
+            }, "Benchmark" + t);
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(durationMillis);
+        running.set(false);
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        return operations.sum() * 1e9 / elapsed;
+    }
+
+    /**
+     * Run read through requests of batchSize random keys each and return throughput in keys per second.
+     *
+     */
+    public static double measureBatch(ConcurrentLRUCache cache, int threadCount, long durationMillis, int batchSize,
+                                      boolean bulk) throws InterruptedException {
+        for (int key = 0; key < CAPACITY; key++) {
+            cache.put(key, key);
+        }
+
+        LongAdder operations = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int seed = 0x9E3779B9 * (t + 1);
+            Thread thread = new Thread(() -> {
+                int random = seed;
+                long count = 0;
+
+                int[] keys = new int[batchSize];
+                int[] values = new int[batchSize];
+                int[] missedKeys = new int[batchSize];
+
+                try {
+                    start.await();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+
+                while (running.get()) {
+                    for (int i = 0; i < batchSize; i++) {
+                        random ^= random << 13;
+                        random ^= random >>> 17;
+                        random ^= random << 5;
+                        keys[i] = (random & Integer.MAX_VALUE) % KEY_SPACE;
+                    }
+
+                    if (bulk) {
+                        cache.getAll(keys, values);
+
+                        int misses = 0;
+                        for (int i = 0; i < batchSize; i++) {
+                            if (values[i] == -1) {
+                                missedKeys[misses++] = keys[i];
+                            }
+                        }
+
+                        if (misses > 0) {
+                            int[] missed = Arrays.copyOf(missedKeys, misses);
+                            cache.putAll(missed, missed);
+                        }
+                    } else {
+                        for (int i = 0; i < batchSize; i++) {
+                            if (cache.get(keys[i]) == -1) {
+                                cache.put(keys[i], keys[i]);
+                            }
+                        }
+                    }
+
+                    count += batchSize;
+                }
+
+                operations.add(count);
+            }, "Benchmark" + t);
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(durationMillis);
+        running.set(false);
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        return operations.sum() * 1e9 / elapsed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long durationMillis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        int getPercent = args.length > 1 ? Integer.parseInt(args[1]) : 80;
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("Get percent: " + getPercent);
+        System.out.printf("%-12s %18s %18s %18s%n", "Threads", "GlobalLock Mops/s", "Segmented Mops/s",
+                "ReadBuffered Mops/s");
+
+        for (int threadCount : THREAD_COUNTS) {
+            double globalLock = measure(new GlobalLockLRUCache(CAPACITY), threadCount, durationMillis, getPercent);
+            double segmented = measure(new SegmentedLRUCache(CAPACITY), threadCount, durationMillis, getPercent);
+            double readBuffered = measure(new ReadBufferedCache(CAPACITY), threadCount, durationMillis, getPercent);
+
+            System.out.printf("%-12d %18.2f %18.2f %18.2f%n", threadCount, globalLock / 1e6, segmented / 1e6,
+                    readBuffered / 1e6);
+        }
+
+        System.out.printf("%n%-12s %-12s %18s %18s%n", "Threads", "Batch", "PerKey Mkeys/s", "Bulk Mkeys/s");
+
+        for (int threadCount : THREAD_COUNTS) {
+            for (int batchSize : BATCH_SIZES) {
+                double perKey = measureBatch(new ConcurrentLRUCache(CAPACITY), threadCount, durationMillis, batchSize,
+                        false);
+                double bulk = measureBatch(new ConcurrentLRUCache(CAPACITY), threadCount, durationMillis, batchSize,
+                        true);
+
+                System.out.printf("%-12d %-12d %18.2f %18.2f%n", threadCount, batchSize, perKey / 1e6, bulk / 1e6);
+            }
+        }
+
+        System.out.printf("%n%-12s %18s %18s %12s%n", "Threads", "NoStats Mops/s", "Stats Mops/s", "Overhead %");
+
+        for (int threadCount : THREAD_COUNTS) {
+            double noStats = measure(new SegmentedLRUCache(CAPACITY), threadCount, durationMillis, getPercent);
+            double withStats = measure(new SegmentedLRUCache(CAPACITY, new CacheStats()), threadCount, durationMillis,
+                    getPercent);
+
+            System.out.printf("%-12d %18.2f %18.2f %12.1f%n", threadCount, noStats / 1e6, withStats / 1e6,
+                    (noStats - withStats) * 100 / noStats);
+        }
+    }
+}
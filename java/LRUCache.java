@@ -1,12 +1,49 @@
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 /**
  * Implement a LRU Cache which stores integers as data.
  *
+ * By default the least recently used entry is evicted once cache is full. An {@link EvictionPolicy} can be plugged
+ * in to choose the victim differently, e.g. {@link WTinyLfuPolicy} which is resistant to scans.
+ *
+ * Entries can optionally expire a fixed time after they were written and/or last accessed. Expiry times are kept in
+ * a hierarchical timer wheel and expired entries are reclaimed lazily: every get and put first advances the wheel to
+ * current time and removes whatever expired in the buckets passed since the previous call, so there is no need for
+ * a sweeper thread scanning the whole cache.
+ *
  */
 public class LRUCache {
 
+    /**
+     * Policy which decides what to evict once cache grows beyond its capacity. Cache keeps policy informed about
+     * every key it reads or inserts and asks policy for a victim on overflow.
+     */
+    public interface EvictionPolicy {
+
+        /**
+         * Record a cache hit for given key.
+         */
+        void recordAccess(int key);
+
+        /**
+         * Record a key which was just added to cache.
+         */
+        void recordInsertion(int key);
+
+        /**
+         * Pick an entry to evict, forget about it and return its key. Victim may be the key inserted last.
+         */
+        int selectVictim();
+
+        /**
+         * Forget a key which was removed from cache for a reason other than eviction, e.g. expiry.
+         */
+        void recordRemoval(int key);
+    }
+
     public static class Node {
         private int key;
         private int value;
@@ -14,6 +51,15 @@ public class LRUCache {
         private Node prev;
         private Node next;
 
+        // expiry bookkeeping, only used when expiry is enabled
+        private long writeTime;
+        private long expiresAt;
+        private Node timerPrev;
+        private Node timerNext;
+
+        // id of last batch operation which reordered this node
+        private int batchId;
+
         public Node(int key, int value) {
             this.key = key;
             this.value = value;
@@ -28,9 +74,52 @@ public class LRUCache {
     private int capacity;
     private int size;
 
+    private EvictionPolicy evictionPolicy;
+
+    // 0 means entries never expire after write or access respectively
+    private long expireAfterWriteNanos;
+    private long expireAfterAccessNanos;
+    private LongSupplier ticker;
+    private TimerWheel timerWheel;
+
+    private int batchCount;
+
+    private long evictionCount;
+
     public LRUCache(int capacity) {
+        this(capacity, null);
+    }
+
+    public LRUCache(int capacity, EvictionPolicy evictionPolicy) {
+        this(capacity, evictionPolicy, 0, 0, TimeUnit.NANOSECONDS, System::nanoTime);
+    }
+
+    public LRUCache(int capacity, long expireAfterWrite, long expireAfterAccess, TimeUnit unit) {
+        this(capacity, null, expireAfterWrite, expireAfterAccess, unit, System::nanoTime);
+    }
+
+    /**
+     * @param expireAfterWrite  time after last write when an entry expires, 0 to disable
+     * @param expireAfterAccess time after last read or write when an entry expires, 0 to disable
+     * @param ticker            source of current time in nanoseconds
+     */
+    public LRUCache(int capacity, EvictionPolicy evictionPolicy, long expireAfterWrite, long expireAfterAccess,
+                    TimeUnit unit, LongSupplier ticker) {
+        if (expireAfterWrite < 0 || expireAfterAccess < 0) {
+            throw new IllegalArgumentException("Invalid expiry: " + expireAfterWrite + ", " + expireAfterAccess);
+        }
+
         this.capacity = capacity;
         this.size = 0;
+        this.evictionPolicy = evictionPolicy;
+
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.expireAfterAccessNanos = unit.toNanos(expireAfterAccess);
+        this.ticker = ticker;
+
+        if (expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0) {
+            this.timerWheel = new TimerWheel(ticker.getAsLong());
+        }
 
         // sentinel nodes
         this.head = new Node(-1, -1);
@@ -43,27 +132,53 @@ public class LRUCache {
     }
 
     public int get(int key) {
+        long now = expireEntries();
+
         if (!map.containsKey(key)) {
             return -1;
         }
 
         Node node = map.get(key);
 
+        if (timerWheel != null) {
+            if (node.expiresAt - now <= 0) {
+                removeExpired(node);
+                return -1;
+            }
+
+            updateExpiry(node, now);
+        }
+
         removeNode(node);
         moveToHead(node);
 
+        if (evictionPolicy != null) {
+            evictionPolicy.recordAccess(key);
+        }
+
         return node.value;
     }
 
     public void put(int key, int value) {
+        long now = expireEntries();
+
         if (map.containsKey(key)) {
             Node node = map.get(key);
 
             node.value = value;
 
+            if (timerWheel != null) {
+                node.writeTime = now;
+                updateExpiry(node, now);
+            }
+
             // update order
             removeNode(node);
             moveToHead(node);
+
+            if (evictionPolicy != null) {
+                evictionPolicy.recordAccess(key);
+            }
             return;
         }
 
@@ -71,10 +186,161 @@ public class LRUCache {
         map.put(key, data);
         moveToHead(data);
 
+        if (timerWheel != null) {
+            data.writeTime = now;
+            updateExpiry(data, now);
+        }
+
         size++;
 
+        if (evictionPolicy != null) {
+            evictionPolicy.recordInsertion(key);
+        }
+
         if (size > capacity) {
-            removeTailFromCache();
+            evict();
+        }
+    }
+
+    /**
+     * Number of entries evicted to make room for new ones since cache was created. Expired entries are not counted.
+     *
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Ticker time in nanoseconds at which entry of given key expires. Returns Long.MAX_VALUE if key is not cached or
+     * expiry is disabled. Does not count as an access.
+     *
+     */
+    public long getExpiryTime(int key) {
+        Node node = map.get(key);
+        if (node == null || timerWheel == null) {
+            return Long.MAX_VALUE;
+        }
+
+        return node.expiresAt;
+    }
+
+    /**
+     * Look up all given keys, out[i] receives value of keys[i] or -1 if it is not cached.
+     *
+     * Recency order is updated once per distinct key at the end of the batch, which leaves cache in the same order
+     * as calling get for every key would.
+     */
+    public void getAll(int[] keys, int[] out) {
+        long now = expireEntries();
+
+        Node[] hits = new Node[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            Node node = map.get(keys[i]);
+
+            if (node != null && timerWheel != null) {
+                if (node.expiresAt - now <= 0) {
+                    removeExpired(node);
+                    node = null;
+                } else {
+                    updateExpiry(node, now);
+                }
+            }
+
+            if (node == null) {
+                out[i] = -1;
+                continue;
+            }
+
+            out[i] = node.value;
+            hits[i] = node;
+
+            if (evictionPolicy != null) {
+                evictionPolicy.recordAccess(keys[i]);
+            }
+        }
+
+        moveAllToHead(hits);
+    }
+
+    /**
+     * Add or update all given entries. Recency order is updated once per distinct key and entries which do not fit
+     * are evicted in a single pass at the end of the batch.
+     */
+    public void putAll(int[] keys, int[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Keys and values differ in length: " + keys.length + ", "
+                    + values.length);
+        }
+
+        long now = expireEntries();
+
+        Node[] touched = new Node[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            int key = keys[i];
+            Node node = map.get(key);
+
+            if (node != null) {
+                node.value = values[i];
+
+                if (evictionPolicy != null) {
+                    evictionPolicy.recordAccess(key);
+                }
+            } else {
+                node = new Node(key, values[i]);
+                map.put(key, node);
+                moveToHead(node);
+
+                size++;
+
+                if (evictionPolicy != null) {
+                    evictionPolicy.recordInsertion(key);
+                }
+            }
+
+            if (timerWheel != null) {
+                node.writeTime = now;
+                updateExpiry(node, now);
+            }
+
+            touched[i] = node;
+        }
+
+        moveAllToHead(touched);
+
+        while (size > capacity) {
+            evict();
+        }
+    }
+
+    /**
+     * Move given nodes to head so that last one in array ends up most recently used. Nodes which appear more than
+     * once are moved only once. Null elements are skipped.
+     *
+     */
+    private void moveAllToHead(Node[] nodes) {
+        batchCount++;
+
+        // walk backwards placing each distinct node right behind the previously placed one
+        Node anchor = head;
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            Node node = nodes[i];
+            if (node == null || node.batchId == batchCount) {
+                continue;
+            }
+
+            node.batchId = batchCount;
+
+            removeNode(node);
+
+            Node next = anchor.next;
+            anchor.next = node;
+            node.prev = anchor;
+            node.next = next;
+            next.prev = node;
+
+            anchor = node;
         }
     }
 
@@ -100,6 +366,66 @@ public class LRUCache {
         next.prev = node;
     }
 
+    private void evict() {
+        if (evictionPolicy != null) {
+            removeFromCache(evictionPolicy.selectVictim());
+        } else {
+            removeTailFromCache();
+        }
+
+        evictionCount++;
+    }
+
+    private void removeFromCache(int key) {
+        Node node = map.remove(key);
+
+        removeNode(node);
+        size--;
+
+        if (timerWheel != null) {
+            timerWheel.deschedule(node);
+        }
+    }
+
+    /**
+     * Advance timer wheel to current time and remove all entries which expired meanwhile. Returns current time.
+     *
+     */
+    private long expireEntries() {
+        if (timerWheel == null) {
+            return 0;
+        }
+
+        long now = ticker.getAsLong();
+        timerWheel.advance(now);
+
+        return now;
+    }
+
+    private void updateExpiry(Node node, long now) {
+        long writeExpiry = node.writeTime + expireAfterWriteNanos;
+        long accessExpiry = now + expireAfterAccessNanos;
+
+        if (expireAfterAccessNanos == 0) {
+            node.expiresAt = writeExpiry;
+        } else if (expireAfterWriteNanos == 0) {
+            node.expiresAt = accessExpiry;
+        } else {
+            // whichever comes first, compared as difference since nano time may overflow
+            node.expiresAt = writeExpiry - accessExpiry < 0 ? writeExpiry : accessExpiry;
+        }
+
+        timerWheel.reschedule(node);
+    }
+
+    private void removeExpired(Node node) {
+        if (evictionPolicy != null) {
+            evictionPolicy.recordRemoval(node.key);
+        }
+
+        removeFromCache(node.key);
+    }
+
     private void removeTailFromCache() {
         if (size == 0) {
             throw new RuntimeException("Cache is empty");
@@ -108,6 +434,10 @@ public class LRUCache {
         // head <> a <> tail
         Node tailNode = tail.prev;
 
+        if (timerWheel != null) {
+            timerWheel.deschedule(tailNode);
+        }
+
         // remove this from map
         map.remove(tailNode.key);
 
@@ -122,6 +452,145 @@ public class LRUCache {
         size--;
     }
 
+    /**
+     * Hierarchical timer wheel of cache nodes ordered by expiry time.
+     *
+     * Each level is an array of buckets, every bucket covers a power of two span of time: about 1 second on the first
+     * level, then about 1 minute, 1 hour, 1 day and 6 days. A node is put in the bucket of the finest level whose
+     * range still covers its expiry time. When time advances, only the buckets passed since last advance are visited;
+     * nodes in them either expired or get rescheduled into a finer level. Scheduling, rescheduling and removal are
+     * O(1) and every node cascades at most once per level, which makes expiry amortized O(1).
+     */
+    private class TimerWheel {
+        // buckets x span of a level must reach span of next level, else a node wraps around and cascades twice
+        private final int[] bucketCounts = {64, 64, 32, 16, 1};
+        private final long[] spans = {
+                1L << 30, // 1.07s
+                1L << 36, // 1.14m
+                1L << 42, // 1.22h
+                1L << 46, // 0.81d
+                1L << 50, // 6.5d
+                1L << 50, // 6.5d
+        };
+        private final int[] shifts = new int[spans.length];
+
+        // sentinel node per bucket heading a circular doubly linked list
+        private final Node[][] wheel;
+
+        private long nanos;
+
+        private TimerWheel(long now) {
+            this.nanos = now;
+
+            this.wheel = new Node[bucketCounts.length][];
+            for (int i = 0; i < bucketCounts.length; i++) {
+                wheel[i] = new Node[bucketCounts[i]];
+                for (int j = 0; j < bucketCounts[i]; j++) {
+                    Node sentinel = new Node(-1, -1);
+                    sentinel.timerPrev = sentinel;
+                    sentinel.timerNext = sentinel;
+                    wheel[i][j] = sentinel;
+                }
+            }
+
+            for (int i = 0; i < spans.length; i++) {
+                shifts[i] = Long.numberOfTrailingZeros(spans[i]);
+            }
+        }
+
+        private void advance(long now) {
+            long previous = nanos;
+            nanos = now;
+
+            for (int i = 0; i < shifts.length - 1; i++) {
+                long previousTicks = previous >>> shifts[i];
+                long currentTicks = now >>> shifts[i];
+                if (currentTicks - previousTicks <= 0) {
+                    break;
+                }
+
+                expire(i, previousTicks, currentTicks - previousTicks);
+            }
+        }
+
+        /**
+         * Visit buckets of given level which were passed since previous advance.
+         *
+         */
+        private void expire(int level, long previousTicks, long delta) {
+            Node[] buckets = wheel[level];
+            int mask = buckets.length - 1;
+
+            int steps = (int) Math.min(delta + 1, buckets.length);
+            int start = (int) (previousTicks & mask);
+
+            for (int i = start; i < start + steps; i++) {
+                Node sentinel = buckets[i & mask];
+
+                // detach whole bucket, nodes which did not expire yet go back into a finer bucket
+                Node node = sentinel.timerNext;
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+
+                while (node != sentinel) {
+                    Node next = node.timerNext;
+                    node.timerPrev = null;
+                    node.timerNext = null;
+
+                    if (node.expiresAt - nanos <= 0) {
+                        removeExpired(node);
+                    } else {
+                        schedule(node);
+                    }
+
+                    node = next;
+                }
+            }
+        }
+
+        private void schedule(Node node) {
+            Node sentinel = findBucket(node.expiresAt);
+
+            Node last = sentinel.timerPrev;
+            last.timerNext = node;
+            node.timerPrev = last;
+
+            node.timerNext = sentinel;
+            sentinel.timerPrev = node;
+        }
+
+        private void reschedule(Node node) {
+            deschedule(node);
+            schedule(node);
+        }
+
+        private void deschedule(Node node) {
+            if (node.timerNext == null) {
+                return;
+            }
+
+            node.timerPrev.timerNext = node.timerNext;
+            node.timerNext.timerPrev = node.timerPrev;
+
+            node.timerPrev = null;
+            node.timerNext = null;
+        }
+
+        private Node findBucket(long time) {
+            long duration = time - nanos;
+            int last = wheel.length - 1;
+
+            for (int i = 0; i < last; i++) {
+                if (duration < spans[i + 1]) {
+                    long ticks = time >>> shifts[i];
+                    return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+                }
+            }
+
+            return wheel[last][0];
+        }
+    }
+
     public static void main(String[] args) {
 
         LRUCache cache = new LRUCache(3);
@@ -160,5 +629,22 @@ public class LRUCache {
         key = 5;
         value = cache.get(key);
         System.out.println("key: " + key + " ;Value: " + value);
+
+        // entries expire 10 seconds after write, clock is advanced by hand
+        long[] clock = {0};
+        LRUCache expiringCache = new LRUCache(3, null, 10, 0, TimeUnit.SECONDS, () -> clock[0]);
+
+        expiringCache.put(1, 100);
+        clock[0] += TimeUnit.SECONDS.toNanos(5);
+        expiringCache.put(2, 200);
+        clock[0] += TimeUnit.SECONDS.toNanos(6);
+
+        key = 1;
+        value = expiringCache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        key = 2;
+        value = expiringCache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
     }
 }
@@ -0,0 +1,386 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fixed size Bounded Queue of ints which survives process restarts.
+ *
+ * Elements are appended to a log split into fixed size segment files, every segment memory mapped. offer writes the
+ * int straight into the mapped page and poll reads it from there, so no copy goes through a heap buffer or a
+ * system call. A small mapped meta file holds the committed tail and the acknowledged head.
+ *
+ * Durability works like a database log with group commit. {@link #sync()} forces segment pages written since the
+ * last sync and only then records the new committed tail in meta file, so committed tail never points at data that
+ * is not on disk. Threads calling sync while another sync is running wait for it and return without an fsync of
+ * their own if it already covered their elements, so one fsync serves a whole group of producers. With syncEvery
+ * set, offer syncs automatically every that many elements; elements appended after the last sync are lost on a crash.
+ *
+ * Consumers poll elements and acknowledge them with {@link #ack()}. A segment file is deleted by the first sync after
+ * every element in it has been acknowledged, once that acknowledgement is on disk. After a restart queue continues
+ * from the acknowledged head, so elements polled but not acknowledged are delivered again.
+ *
+ * Blocking and notification work like in {@link BlockingQueue}, but InterruptedException is passed on to caller.
+ *
+ * @author Prabhash Rathore
+ */
+public class MappedIntQueue implements AutoCloseable {
+
+    private static final int MAGIC = 0x51554555; // "QUEU"
+
+    // meta file fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SEGMENT_CAPACITY_OFFSET = 4;
+    private static final int COMMITTED_TAIL_OFFSET = 8;
+    private static final int ACKED_HEAD_OFFSET = 16;
+    private static final int META_BYTES = 64;
+
+    private final Path directory;
+    private final int capacity;
+    private final int segmentCapacity;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final int syncEvery;
+
+    private final MappedByteBuffer meta;
+    private final Map<Long, MappedByteBuffer> segments = new HashMap<>();
+
+    // guarded by this
+    private long head;
+    private long tail;
+    private long ackedHead;
+    private int waitingProducers;
+    private int waitingConsumers;
+
+    // segments holding head and tail position, cached so offer and poll do not look up the map
+    private MappedByteBuffer headSegment;
+    private long headSegmentIndex = -1;
+    private MappedByteBuffer tailSegment;
+    private long tailSegmentIndex = -1;
+
+    // guarded by syncLock, only one fsync runs at a time
+    private final Object syncLock = new Object();
+    private long syncedTail;
+    private long syncedAckedHead;
+    private long firstLiveSegment;
+
+    // tail at which the next automatic sync is due, guarded by this
+    private long nextSyncAt;
+
+    public MappedIntQueue(Path directory, int capacity) throws IOException {
+        this(directory, capacity, 1 << 20, 0);
+    }
+
+    /**
+     * Open queue in given directory, recovering committed elements left by a previous process.
+     *
+     * @param capacity most elements in queue, offer blocks beyond that
+     * @param segmentCapacity ints per segment file, a power of two, must match what the directory was created with
+     * @param syncEvery sync automatically every that many offered elements, 0 to only sync explicitly
+     */
+    public MappedIntQueue(Path directory, int capacity, int segmentCapacity, int syncEvery) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        if (segmentCapacity <= 0 || segmentCapacity > (1 << 28) || Integer.bitCount(segmentCapacity) != 1) {
+            throw new IllegalArgumentException("Segment capacity must be a power of two: " + segmentCapacity);
+        }
+
+        if (syncEvery < 0) {
+            throw new IllegalArgumentException("Invalid sync interval: " + syncEvery);
+        }
+
+        this.directory = directory;
+        this.capacity = capacity;
+        this.segmentCapacity = segmentCapacity;
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentCapacity);
+        this.segmentMask = segmentCapacity - 1;
+        this.syncEvery = syncEvery;
+
+        Files.createDirectories(directory);
+
+        try (FileChannel channel = FileChannel.open(directory.resolve("queue.meta"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.meta = channel.map(FileChannel.MapMode.READ_WRITE, 0, META_BYTES);
+            meta.order(ByteOrder.nativeOrder());
+        }
+
+        if (meta.getInt(MAGIC_OFFSET) == MAGIC) {
+            if (meta.getInt(SEGMENT_CAPACITY_OFFSET) != segmentCapacity) {
+                throw new IllegalArgumentException("Queue in " + directory + " has segment capacity "
+                        + meta.getInt(SEGMENT_CAPACITY_OFFSET) + ", not " + segmentCapacity);
+            }
+
+            // restarted, continue from last acknowledged element up to last committed one. Acknowledgements are
+            // written to meta page right away, so one may have reached disk for elements that were never committed
+            this.tail = meta.getLong(COMMITTED_TAIL_OFFSET);
+            this.ackedHead = Math.min(meta.getLong(ACKED_HEAD_OFFSET), tail);
+        } else {
+            meta.putInt(SEGMENT_CAPACITY_OFFSET, segmentCapacity);
+            meta.putLong(COMMITTED_TAIL_OFFSET, 0);
+            meta.putLong(ACKED_HEAD_OFFSET, 0);
+            meta.putInt(MAGIC_OFFSET, MAGIC);
+            meta.force();
+        }
+
+        this.head = ackedHead;
+        this.syncedTail = tail;
+        this.syncedAckedHead = ackedHead;
+        this.firstLiveSegment = ackedHead / segmentCapacity;
+        this.nextSyncAt = tail + syncEvery;
+
+        deleteSegmentsOutside(ackedHead / segmentCapacity, tail / segmentCapacity);
+    }
+
+    /**
+     * Append value to queue. Block if queue is full. Value is durable only after next {@link #sync()}.
+     *
+     */
+    public void offer(int value) throws IOException, InterruptedException {
+        boolean syncDue;
+
+        synchronized (this) {
+            while (tail - head >= capacity) {
+                waitingProducers++;
+                try {
+                    wait();
+                } finally {
+                    waitingProducers--;
+                }
+            }
+
+            long segmentIndex = tail >>> segmentShift;
+            if (segmentIndex != tailSegmentIndex) {
+                tailSegment = segment(segmentIndex);
+                tailSegmentIndex = segmentIndex;
+            }
+
+            tailSegment.putInt(((int) tail & segmentMask) * Integer.BYTES, value);
+            tail++;
+
+            if (waitingConsumers > 0) {
+                notifyAll();
+            }
+
+            syncDue = syncEvery > 0 && tail >= nextSyncAt;
+            if (syncDue) {
+                nextSyncAt = tail + syncEvery;
+            }
+        }
+
+        // fsync outside of monitor so other producers and consumers carry on meanwhile
+        if (syncDue) {
+            sync();
+        }
+    }
+
+    /**
+     * Remove the oldest element from queue. Block if queue is empty. Element stays on disk until it is acknowledged.
+     *
+     */
+    public synchronized int poll() throws IOException, InterruptedException {
+        while (head == tail) {
+            waitingConsumers++;
+            try {
+                wait();
+            } finally {
+                waitingConsumers--;
+            }
+        }
+
+        long segmentIndex = head >>> segmentShift;
+        if (segmentIndex != headSegmentIndex) {
+            headSegment = segment(segmentIndex);
+            headSegmentIndex = segmentIndex;
+        }
+
+        int value = headSegment.getInt(((int) head & segmentMask) * Integer.BYTES);
+        head++;
+
+        if (waitingProducers > 0) {
+            notifyAll();
+        }
+
+        return value;
+    }
+
+    /**
+     * Acknowledge every element polled so far. Acknowledgement is durable after next {@link #sync()}, which also
+     * deletes segment files no longer holding unacknowledged elements. Until then a crash delivers them again.
+     *
+     */
+    public synchronized void ack() {
+        ackedHead = head;
+        meta.putLong(ACKED_HEAD_OFFSET, ackedHead);
+    }
+
+    /**
+     * Make every element offered and every acknowledgement made before this call durable. Concurrent callers share
+     * one fsync.
+     *
+     */
+    public void sync() throws IOException {
+        long target;
+        long ackTarget;
+        synchronized (this) {
+            target = tail;
+            ackTarget = ackedHead;
+        }
+
+        synchronized (syncLock) {
+            if (syncedTail >= target && syncedAckedHead >= ackTarget) {
+                // sync which ran while we waited for the lock covered our elements and acknowledgements
+                return;
+            }
+
+            List<MappedByteBuffer> dirty = new ArrayList<>();
+            long from;
+            long to;
+            long acked;
+            synchronized (this) {
+                // acknowledged elements are not worth syncing
+                acked = ackedHead;
+                from = Math.max(syncedTail, acked);
+                to = tail;
+
+                for (long index = from / segmentCapacity; from < to && index <= (to - 1) / segmentCapacity; index++) {
+                    dirty.add(segments.get(index));
+                }
+            }
+
+            long firstIndex = from / segmentCapacity;
+            for (int i = 0; i < dirty.size(); i++) {
+                long segmentStart = (firstIndex + i) * segmentCapacity;
+                int start = (int) (Math.max(from, segmentStart) - segmentStart);
+                int end = (int) (Math.min(to, segmentStart + segmentCapacity) - segmentStart);
+
+                dirty.get(i).force(start * Integer.BYTES, (end - start) * Integer.BYTES);
+            }
+
+            // data is on disk, now it is safe to move committed tail past it
+            synchronized (this) {
+                meta.putLong(COMMITTED_TAIL_OFFSET, to);
+            }
+            meta.force();
+
+            syncedTail = to;
+            syncedAckedHead = acked;
+
+            // acknowledged head is on disk, so a restart no longer needs segments before it
+            deleteSegmentsBefore(acked / segmentCapacity);
+        }
+    }
+
+    public synchronized long size() {
+        return tail - head;
+    }
+
+    /**
+     * Sync outstanding elements and acknowledgements. Mappings are released when queue is garbage collected.
+     *
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        meta.force();
+    }
+
+    /**
+     * Mapped segment with given index, creating its file if needed. Must hold monitor.
+     *
+     */
+    private MappedByteBuffer segment(long index) throws IOException {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null) {
+            // mapping stays valid after channel is closed
+            try (FileChannel channel = FileChannel.open(segmentPath(index),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentCapacity * Integer.BYTES);
+                segment.order(ByteOrder.nativeOrder());
+            }
+
+            segments.put(index, segment);
+        }
+
+        return segment;
+    }
+
+    /**
+     * Delete segment files of fully acknowledged segments up to given index. Must hold syncLock and only be called
+     * once the acknowledged head covering them has been forced to disk.
+     *
+     */
+    private void deleteSegmentsBefore(long lastSegment) {
+        for (; firstLiveSegment < lastSegment; firstLiveSegment++) {
+            synchronized (this) {
+                segments.remove(firstLiveSegment);
+            }
+
+            try {
+                Files.deleteIfExists(segmentPath(firstLiveSegment));
+            } catch (IOException e) {
+                // file still mapped on some platforms, reopening the queue deletes it
+            }
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("segment-%019d.q", index));
+    }
+
+    /**
+     * Delete segment files left over from a crash, i.e. already acknowledged or written past committed tail.
+     *
+     */
+    private void deleteSegmentsOutside(long firstSegment, long lastSegment) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.q")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long index = Long.parseLong(name.substring("segment-".length(), name.length() - ".q".length()));
+
+                if (index < firstSegment || index > lastSegment) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.out.println("Mapped Int Queue");
+
+        // run twice to see values left unacknowledged by previous run delivered again
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "mapped-int-queue");
+
+        try (MappedIntQueue queue = new MappedIntQueue(directory, 1000, 1024, 0)) {
+            System.out.println("Recovered " + queue.size() + " elements");
+            while (queue.size() > 0) {
+                System.out.println("Value removed: " + queue.poll());
+            }
+            queue.ack();
+
+            for (int value = 1; value <= 10; value++) {
+                queue.offer(value);
+            }
+
+            // group commit of all 10 values with a single fsync
+            queue.sync();
+
+            for (int count = 0; count < 5; count++) {
+                System.out.println("Value removed: " + queue.poll());
+            }
+
+            // first 5 are acknowledged, 6 to 10 stay in queue for next run
+            queue.ack();
+        }
+    }
+}
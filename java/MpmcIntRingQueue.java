@@ -0,0 +1,245 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed size Bounded Queue of primitive ints for many producers and many consumers, without locks.
+ *
+ * Based on Dmitry Vyukov's bounded MPMC queue. Every slot of the ring carries a sequence number next to the value. A
+ * producer claims position p with a CAS on the tail counter only when slot p's sequence says it is free for lap p,
+ * writes the value and then publishes it by setting sequence to p + 1. A consumer claims position p with a CAS on the
+ * head counter once slot's sequence is p + 1, reads the value and frees the slot for next lap by setting sequence to
+ * p + capacity. Producers and consumers therefore only contend on their own counter.
+ *
+ * Head and tail counters are padded onto separate cache lines, and slot sequences are spread apart so that threads
+ * working on neighbouring slots do not false share. Padding is done inside arrays since JVM is free to reorder plain
+ * padding fields.
+ *
+ * offer and poll block according to a {@link WaitStrategy} when queue is full or empty, and respond to interruption
+ * by throwing InterruptedException. tryOffer and tryPoll never block. No operation allocates.
+ *
+ * @author Prabhash Rathore
+ */
+public class MpmcIntRingQueue {
+
+    /**
+     * What a thread does while it waits for a slot to become available.
+     */
+    public enum WaitStrategy {
+        /** Busy spin, lowest latency, burns a core per waiting thread. */
+        SPIN,
+        /** Spin with Thread.yield, gives the core to other runnable threads. */
+        YIELD,
+        /** Spin a little, then yield, then park for growing intervals, best when threads outnumber cores. */
+        PARK
+    }
+
+    // sequences are 8 longs = 64 bytes apart, one slot per cache line
+    private static final int SEQUENCE_STRIDE = 8;
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    // tail and head counters 128 bytes apart, with 128 bytes of padding before and after
+    private static final int TAIL = 16;
+    private static final int HEAD = 32;
+
+    /** Returned by tryPoll when queue is empty. */
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    private final AtomicLongArray counters;
+    private final AtomicLongArray sequences;
+    private final int[] values;
+    private final int mask;
+    private final int capacity;
+
+    private final WaitStrategy waitStrategy;
+
+    public MpmcIntRingQueue(int capacity) {
+        this(capacity, WaitStrategy.PARK);
+    }
+
+    /**
+     * @param capacity rounded up to next power of two
+     */
+    public MpmcIntRingQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > (1 << 27)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.values = new int[size];
+        this.counters = new AtomicLongArray(HEAD + 16);
+        this.sequences = new AtomicLongArray(size * SEQUENCE_STRIDE);
+        this.waitStrategy = waitStrategy;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i * SEQUENCE_STRIDE, i);
+        }
+    }
+
+    /**
+     * Add value if there is room. Returns false when queue is full.
+     *
+     */
+    public boolean tryOffer(int value) {
+        while (true) {
+            long position = counters.get(TAIL);
+            int index = (int) position & mask;
+            long sequence = sequences.get(index * SEQUENCE_STRIDE);
+
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (counters.compareAndSet(TAIL, position, position + 1)) {
+                    values[index] = value;
+
+                    // release store publishes value to consumer which reads sequence with acquire semantics
+                    sequences.lazySet(index * SEQUENCE_STRIDE, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // slot still holds a value from previous lap
+                return false;
+            }
+            // else another producer claimed this position, retry with fresh tail
+        }
+    }
+
+    /**
+     * Remove the oldest value. Returns {@link #EMPTY} when queue is empty.
+     *
+     */
+    public long tryPoll() {
+        while (true) {
+            long position = counters.get(HEAD);
+            int index = (int) position & mask;
+            long sequence = sequences.get(index * SEQUENCE_STRIDE);
+
+            long difference = sequence - (position + 1);
+            if (difference == 0) {
+                if (counters.compareAndSet(HEAD, position, position + 1)) {
+                    int value = values[index];
+                    sequences.lazySet(index * SEQUENCE_STRIDE, position + capacity);
+                    return value;
+                }
+            } else if (difference < 0) {
+                return EMPTY;
+            }
+        }
+    }
+
+    /**
+     * Add new value to queue. Wait according to wait strategy if queue is full.
+     *
+     */
+    public void offer(int value) throws InterruptedException {
+        int tries = 0;
+        while (!tryOffer(value)) {
+            tries = idle(tries);
+        }
+    }
+
+    /**
+     * Remove the oldest element from queue. Wait according to wait strategy if queue is empty.
+     *
+     */
+    public int poll() throws InterruptedException {
+        int tries = 0;
+        while (true) {
+            long value = tryPoll();
+            if (value != EMPTY) {
+                return (int) value;
+            }
+
+            tries = idle(tries);
+        }
+    }
+
+    /**
+     * Approximate number of elements, exact when no other thread modifies queue.
+     *
+     */
+    public int size() {
+        long size = counters.get(TAIL) - counters.get(HEAD);
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int idle(int tries) throws InterruptedException {
+        // parkNanos returns immediately while interrupt flag is set, so waiting on would turn into a busy spin
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        switch (waitStrategy) {
+            case SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                if (tries < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                } else {
+                    // back off exponentially up to a millisecond
+                    int shift = Math.min(20, tries - SPIN_TRIES - YIELD_TRIES);
+                    LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1L << shift));
+                }
+                break;
+        }
+
+        // stop counting once backoff reached its maximum
+        return Math.min(tries + 1, SPIN_TRIES + YIELD_TRIES + 20);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("MPMC Int Ring Queue");
+
+        MpmcIntRingQueue queue = new MpmcIntRingQueue(3);
+
+        // Thread t1 add elements every second to queue
+        Thread t1 = new Thread(() -> {
+            int count = 10;
+            try {
+                while (count > 0) {
+                    queue.offer(count);
+                    Thread.sleep(1000);
+
+                    count--;
+                }
+            } catch (InterruptedException ie) {
+                System.out.println(Thread.currentThread().getName() + " interrupted, stopping");
+            }
+        }, "T1");
+
+        // Consumer waits with park strategy while queue is empty
+        Thread t2 = new Thread(() -> {
+            int count = 10;
+            try {
+                while (count > 0) {
+                    int value = queue.poll();
+                    System.out.println("Value removed: " + value);
+
+                    count--;
+                }
+            } catch (InterruptedException ie) {
+                System.out.println(Thread.currentThread().getName() + " interrupted, stopping");
+            }
+        }, "T2");
+
+        t1.start();
+        t2.start();
+
+        t1.join();
+        t2.join();
+    }
+}
@@ -0,0 +1,421 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * LRU Cache which stores integers as data outside of Java heap.
+ *
+ * Everything, i.e. entries, LRU links and hash index, lives in direct ByteBuffer slabs, so garbage collection cost
+ * does not depend on number of cached entries. An entry costs 16 bytes (key, value, prev, next) plus 8 bytes of
+ * open addressing index at most, against roughly 80 bytes for a {@link LRUCache.Node} with its HashMap entry and
+ * boxed key.
+ *
+ * A single ByteBuffer is limited to 2GB, so keys are spread by hash over as many slabs as needed. Every slab is an
+ * independent LRU with its share of capacity. Slabs are either anonymous direct buffers or memory mapped files; a
+ * file backed cache picks up its previous content when it is reopened on same directory with same capacity.
+ *
+ * Not thread safe, same as {@link LRUCache}.
+ *
+ * @author Prabhash Rathore
+ */
+public class OffHeapLRUCache {
+
+    private static final int MAGIC = 0x4c525543; // "LRUC"
+    private static final int MAX_SLAB_CAPACITY = 1 << 26;
+
+    private final Slab[] slabs;
+    private final int slabMask;
+
+    /**
+     * LRU over a single buffer laid out as header, entry slots and hash index.
+     */
+    private static class Slab {
+        private static final int NIL = -1;
+
+        // header fields
+        private static final int MAGIC_OFFSET = 0;
+        private static final int CAPACITY_OFFSET = 4;
+        private static final int TABLE_SIZE_OFFSET = 8;
+        private static final int SIZE_OFFSET = 12;
+        private static final int HEAD_OFFSET = 16;
+        private static final int TAIL_OFFSET = 20;
+        private static final int HEADER_BYTES = 32;
+
+        // entry fields
+        private static final int KEY = 0;
+        private static final int VALUE = 4;
+        private static final int PREV = 8;
+        private static final int NEXT = 12;
+        private static final int ENTRY_BYTES = 16;
+
+        private final ByteBuffer buffer;
+        private final int capacity;
+        private final int tableOffset;
+        private final int mask;
+        private final int shift;
+
+        private int size;
+        private int head;
+        private int tail;
+
+        private Slab(ByteBuffer buffer, int capacity, int tableSize) {
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.tableOffset = HEADER_BYTES + capacity * ENTRY_BYTES;
+            this.mask = tableSize - 1;
+            this.shift = 32 - Integer.numberOfTrailingZeros(tableSize);
+
+            if (buffer.getInt(MAGIC_OFFSET) == MAGIC && buffer.getInt(CAPACITY_OFFSET) == capacity
+                    && buffer.getInt(TABLE_SIZE_OFFSET) == tableSize) {
+                // reopened file, continue where previous process left off
+                this.size = buffer.getInt(SIZE_OFFSET);
+                this.head = buffer.getInt(HEAD_OFFSET);
+                this.tail = buffer.getInt(TAIL_OFFSET);
+                return;
+            }
+
+            // index buckets store slot + 1 so that zero filled memory is an empty index
+            for (int i = 0; i < tableSize; i++) {
+                buffer.putInt(tableOffset + i * 4, 0);
+            }
+
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putInt(TABLE_SIZE_OFFSET, tableSize);
+            setSize(0);
+            setHead(NIL);
+            setTail(NIL);
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+        }
+
+        private static int tableSizeFor(int capacity) {
+            // keep load factor at or below 0.5 so probe sequences stay short
+            return Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        }
+
+        private static long bytesFor(int capacity) {
+            return HEADER_BYTES + (long) capacity * ENTRY_BYTES + (long) tableSizeFor(capacity) * 4;
+        }
+
+        private int get(int key) {
+            int slot = findSlot(key);
+            if (slot == NIL) {
+                return -1;
+            }
+
+            moveToHead(slot);
+
+            return value(slot);
+        }
+
+        private void put(int key, int value) {
+            int slot = findSlot(key);
+            if (slot != NIL) {
+                buffer.putInt(entry(slot) + VALUE, value);
+
+                // update order
+                moveToHead(slot);
+                return;
+            }
+
+            if (size == capacity) {
+                // reuse the slot of least recently used entry
+                slot = tail;
+                removeFromTable(key(slot));
+                unlink(slot);
+            } else {
+                slot = size;
+                setSize(size + 1);
+            }
+
+            int entry = entry(slot);
+            buffer.putInt(entry + KEY, key);
+            buffer.putInt(entry + VALUE, value);
+
+            addToTable(key, slot);
+            linkAtHead(slot);
+        }
+
+        private int entry(int slot) {
+            return HEADER_BYTES + slot * ENTRY_BYTES;
+        }
+
+        private int key(int slot) {
+            return buffer.getInt(entry(slot) + KEY);
+        }
+
+        private int value(int slot) {
+            return buffer.getInt(entry(slot) + VALUE);
+        }
+
+        private int prev(int slot) {
+            return buffer.getInt(entry(slot) + PREV);
+        }
+
+        private int next(int slot) {
+            return buffer.getInt(entry(slot) + NEXT);
+        }
+
+        private void setPrev(int slot, int prev) {
+            buffer.putInt(entry(slot) + PREV, prev);
+        }
+
+        private void setNext(int slot, int next) {
+            buffer.putInt(entry(slot) + NEXT, next);
+        }
+
+        private void setSize(int size) {
+            this.size = size;
+            buffer.putInt(SIZE_OFFSET, size);
+        }
+
+        private void setHead(int head) {
+            this.head = head;
+            buffer.putInt(HEAD_OFFSET, head);
+        }
+
+        private void setTail(int tail) {
+            this.tail = tail;
+            buffer.putInt(TAIL_OFFSET, tail);
+        }
+
+        private int bucketSlot(int index) {
+            return buffer.getInt(tableOffset + index * 4) - 1;
+        }
+
+        private void setBucketSlot(int index, int slot) {
+            buffer.putInt(tableOffset + index * 4, slot + 1);
+        }
+
+        private int bucket(int key) {
+            return (key * 0x9E3779B9) >>> shift;
+        }
+
+        private int findSlot(int key) {
+            int index = bucket(key);
+
+            while (true) {
+                int slot = bucketSlot(index);
+                if (slot == NIL) {
+                    return NIL;
+                }
+
+                if (key(slot) == key) {
+                    return slot;
+                }
+
+                index = (index + 1) & mask;
+            }
+        }
+
+        private void addToTable(int key, int slot) {
+            int index = bucket(key);
+
+            while (bucketSlot(index) != NIL) {
+                index = (index + 1) & mask;
+            }
+
+            setBucketSlot(index, slot);
+        }
+
+        /**
+         * Remove key from index using backward shift deletion, same as {@link PrimitiveLRUCache}.
+         *
+         */
+        private void removeFromTable(int key) {
+            int hole = bucket(key);
+            while (key(bucketSlot(hole)) != key) {
+                hole = (hole + 1) & mask;
+            }
+
+            int index = hole;
+            while (true) {
+                index = (index + 1) & mask;
+
+                int slot = bucketSlot(index);
+                if (slot == NIL) {
+                    break;
+                }
+
+                int home = bucket(key(slot));
+                if (((index - home) & mask) >= ((index - hole) & mask)) {
+                    setBucketSlot(hole, slot);
+                    hole = index;
+                }
+            }
+
+            setBucketSlot(hole, NIL);
+        }
+
+        private void moveToHead(int slot) {
+            if (slot == head) {
+                return;
+            }
+
+            unlink(slot);
+            linkAtHead(slot);
+        }
+
+        private void unlink(int slot) {
+            int p = prev(slot);
+            int n = next(slot);
+
+            if (p == NIL) {
+                setHead(n);
+            } else {
+                setNext(p, n);
+            }
+
+            if (n == NIL) {
+                setTail(p);
+            } else {
+                setPrev(n, p);
+            }
+        }
+
+        private void linkAtHead(int slot) {
+            setPrev(slot, NIL);
+            setNext(slot, head);
+
+            if (head == NIL) {
+                setTail(slot);
+            } else {
+                setPrev(head, slot);
+            }
+
+            setHead(slot);
+        }
+    }
+
+    /**
+     * Cache backed by anonymous direct buffers.
+     *
+     */
+    public OffHeapLRUCache(long capacity) {
+        this.slabs = new Slab[slabCountFor(capacity)];
+        this.slabMask = slabs.length - 1;
+
+        for (int i = 0; i < slabs.length; i++) {
+            int slabCapacity = slabCapacity(capacity, i);
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Slab.bytesFor(slabCapacity))
+                    .order(ByteOrder.nativeOrder());
+
+            slabs[i] = new Slab(buffer, slabCapacity, Slab.tableSizeFor(slabCapacity));
+        }
+    }
+
+    /**
+     * Cache backed by memory mapped files in given directory, one file per slab. Reopening same directory with same
+     * capacity restores cached entries and their LRU order.
+     *
+     */
+    public OffHeapLRUCache(long capacity, Path directory) throws IOException {
+        this.slabs = new Slab[slabCountFor(capacity)];
+        this.slabMask = slabs.length - 1;
+
+        Files.createDirectories(directory);
+
+        for (int i = 0; i < slabs.length; i++) {
+            int slabCapacity = slabCapacity(capacity, i);
+            long bytes = Slab.bytesFor(slabCapacity);
+
+            // mapping stays valid after channel is closed
+            try (FileChannel channel = FileChannel.open(directory.resolve("slab-" + i + ".lru"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                buffer.order(ByteOrder.nativeOrder());
+
+                slabs[i] = new Slab(buffer, slabCapacity, Slab.tableSizeFor(slabCapacity));
+            }
+        }
+    }
+
+    public int get(int key) {
+        return slabFor(key).get(key);
+    }
+
+    public void put(int key, int value) {
+        slabFor(key).put(key, value);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Slab slab : slabs) {
+            size += slab.size;
+        }
+
+        return size;
+    }
+
+    /**
+     * Write dirty pages of memory mapped slabs to disk. Does nothing for a cache backed by direct buffers.
+     *
+     */
+    public void flush() {
+        for (Slab slab : slabs) {
+            if (slab.buffer instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) slab.buffer).force();
+            }
+        }
+    }
+
+    private Slab slabFor(int key) {
+        int h = key * 0x85EBCA6B;
+        return slabs[(h ^ (h >>> 15)) & slabMask];
+    }
+
+    private static int slabCountFor(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        // power of two slabs so slab index is a mask
+        int slabCount = 1;
+        while ((long) slabCount * MAX_SLAB_CAPACITY < capacity) {
+            slabCount <<= 1;
+        }
+
+        return slabCount;
+    }
+
+    private int slabCapacity(long capacity, int slab) {
+        long share = capacity / slabs.length;
+        return (int) (slab < capacity % slabs.length ? share + 1 : share);
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        OffHeapLRUCache cache = new OffHeapLRUCache(3);
+
+        cache.put(1, 100);
+        cache.put(2, 200);
+        cache.put(3, 300);
+
+        int key = 1;
+        int value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        // evicts 2 which is least recently used
+        cache.put(4, 400);
+
+        key = 2;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        // file backed cache survives restarts, run twice to see values loaded from previous run
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "offheap-lru-cache");
+        OffHeapLRUCache persistentCache = new OffHeapLRUCache(1000, directory);
+
+        key = 42;
+        value = persistentCache.get(key);
+        System.out.println("Persistent cache size: " + persistentCache.size() + " ;key: " + key + " ;Value: " + value);
+
+        persistentCache.put(key, 4200);
+        persistentCache.flush();
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.Arrays;
+
+/**
+ * LRU Cache which stores integers as data without boxing keys or allocating a Node per entry.
+ *
+ * Entries live in parallel int arrays (keys, values, prev, next) indexed by an entry slot. Key lookup goes through
+ * an open addressing hash table with linear probing which maps a key to its entry slot, and the recency order is a
+ * doubly linked list threaded through the prev/next arrays. All arrays are allocated in the constructor, so get and
+ * put never allocate.
+ *
+ * @author Prabhash Rathore
+ */
+public class PrimitiveLRUCache {
+
+    private static final int NIL = -1;
+
+    // entry slots
+    private final int[] keys;
+    private final int[] values;
+    private final int[] prev;
+    private final int[] next;
+
+    // open addressing index from key to entry slot, NIL means empty bucket
+    private final int[] table;
+    private final int mask;
+    private final int shift;
+
+    private int head;
+    private int tail;
+
+    private final int capacity;
+    private int size;
+
+    public PrimitiveLRUCache(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 29)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.size = 0;
+
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+
+        // keep load factor at or below 0.5 so probe sequences stay short
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        this.table = new int[tableSize];
+        Arrays.fill(table, NIL);
+        this.mask = tableSize - 1;
+        this.shift = 32 - Integer.numberOfTrailingZeros(tableSize);
+
+        this.head = NIL;
+        this.tail = NIL;
+    }
+
+    public int get(int key) {
+        int slot = findSlot(key);
+        if (slot == NIL) {
+            return -1;
+        }
+
+        moveToHead(slot);
+
+        return values[slot];
+    }
+
+    public void put(int key, int value) {
+        int slot = findSlot(key);
+        if (slot != NIL) {
+            values[slot] = value;
+
+            // update order
+            moveToHead(slot);
+            return;
+        }
+
+        if (size == capacity) {
+            // reuse the slot of least recently used entry
+            slot = tail;
+            removeFromTable(keys[slot]);
+            unlink(slot);
+        } else {
+            slot = size++;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+
+        addToTable(key, slot);
+        linkAtHead(slot);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int bucket(int key) {
+        // fibonacci hashing spreads sequential keys across the table
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    private int findSlot(int key) {
+        int index = bucket(key);
+
+        while (true) {
+            int slot = table[index];
+            if (slot == NIL) {
+                return NIL;
+            }
+
+            if (keys[slot] == key) {
+                return slot;
+            }
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void addToTable(int key, int slot) {
+        int index = bucket(key);
+
+        while (table[index] != NIL) {
+            index = (index + 1) & mask;
+        }
+
+        table[index] = slot;
+    }
+
+    /**
+     * Remove key from index using backward shift deletion so that no tombstones are left behind in the table.
+     *
+     */
+    private void removeFromTable(int key) {
+        int hole = bucket(key);
+        while (keys[table[hole]] != key) {
+            hole = (hole + 1) & mask;
+        }
+
+        int index = hole;
+        while (true) {
+            index = (index + 1) & mask;
+
+            int slot = table[index];
+            if (slot == NIL) {
+                break;
+            }
+
+            // entry can fill the hole only if its home bucket is not cyclically between hole and current index
+            int home = bucket(keys[slot]);
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                table[hole] = slot;
+                hole = index;
+            }
+        }
+
+        table[hole] = NIL;
+    }
+
+    private void moveToHead(int slot) {
+        if (slot == head) {
+            return;
+        }
+
+        unlink(slot);
+        linkAtHead(slot);
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+
+        if (p == NIL) {
+            head = n;
+        } else {
+            next[p] = n;
+        }
+
+        if (n == NIL) {
+            tail = p;
+        } else {
+            prev[n] = p;
+        }
+
+        prev[slot] = NIL;
+        next[slot] = NIL;
+    }
+
+    private void linkAtHead(int slot) {
+        prev[slot] = NIL;
+        next[slot] = head;
+
+        if (head == NIL) {
+            tail = slot;
+        } else {
+            prev[head] = slot;
+        }
+
+        head = slot;
+    }
+
+    public static void main(String[] args) {
+
+        PrimitiveLRUCache cache = new PrimitiveLRUCache(3);
+
+        cache.put(1, 100);
+
+        int key = 1;
+        int value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        cache.put(2, 200);
+        cache.put(3, 300);
+
+        key = 1;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        // evicts 2 which is least recently used
+        cache.put(4, 400);
+
+        key = 2;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        cache.put(5, 500);
+
+        key = 3;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        key = 1;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        key = 5;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+    }
+}
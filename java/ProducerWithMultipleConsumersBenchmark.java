@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scaling benchmark of {@link ProducerWithMultipleConsumersSimulator} on platform threads against virtual threads.
+ *
+ * Every run starts the given number of agents, each handling 5 users with a fixed handling time, and the producer
+ * adds users without delay. Reported are users handled per second next to the ideal rate of agents / handling time,
+ * and growth of resident memory of the process while simulation runs, sampled from /proc on Linux. Resident memory
+ * covers thread stacks as well as heap. Platform threads are only run up to 1,000 agents, beyond that an OS thread
+ * per agent runs into process limits.
+ *
+ * Second part measures overhead of the handoff itself: 1,000,000 users with no delay and no handling time, on 1 to
+ * 8 platform thread agents.
+ *
+ * Third part compares the shared queue with the work stealing dispatcher as platform thread agents grow from 2 to 64,
+ * again without delay and handling time so that handing users over is all the work there is.
+ *
+ * Backpressure part lets 4 producers add users as fast as they can to 16 agents which need 1 ms per user, first with
+ * an unbounded queue and then with a queue of 1,000 under every {@link
+ * ProducerWithMultipleConsumersSimulator.BackpressurePolicy}. Reported are users added and handled per second, users
+ * discarded, queue depth and latency from being added until being handled.
+ *
+ * Shutdown part runs 10,000 users without delay and handling time several times, once on new threads per run and
+ * once on a cached thread pool shared by all runs, and reports average time until last user is done and time from
+ * then until every agent has taken its poison pill and returned.
+ *
+ * Log lines of the simulator are written to a discarding stream.
+ *
+ * Run with: java ProducerWithMultipleConsumersBenchmark [handlingMillis]
+ *
+ * @author Prabhash Rathore
+ */
+public class ProducerWithMultipleConsumersBenchmark {
+
+    private static final int[] AGENT_COUNTS = {10, 1_000, 100_000};
+    private static final int MAX_PLATFORM_AGENTS = 1_000;
+    private static final int USERS_PER_AGENT = 5;
+
+    private static final int[] HANDOFF_AGENT_COUNTS = {1, 2, 8};
+    private static final int HANDOFF_USERS = 1_000_000;
+
+    private static final int[] DISPATCH_AGENT_COUNTS = {2, 4, 8, 16, 32, 64};
+    private static final int DISPATCH_USERS = 500_000;
+
+    private static final int BACKPRESSURE_PRODUCERS = 4;
+    private static final int BACKPRESSURE_AGENTS = 16;
+    private static final int BACKPRESSURE_USERS = 40_000;
+    private static final int BACKPRESSURE_CAPACITY = 1_000;
+    private static final long BACKPRESSURE_HANDLING_MILLIS = 1;
+
+    private static final int[] SHUTDOWN_AGENT_COUNTS = {16, 1_000};
+    private static final int SHUTDOWN_USERS = 10_000;
+    private static final int SHUTDOWN_RUNS = 5;
+
+    /**
+     * Run one simulation and return users handled per second and peak growth of resident memory in bytes.
+     *
+     */
+    public static double[] measure(ProducerWithMultipleConsumersSimulator.ExecutionMode mode,
+                                   ProducerWithMultipleConsumersSimulator.DispatchMode dispatchMode, int agents,
+                                   int users, long handlingMillis) throws InterruptedException {
+        System.gc();
+        long baseline = residentBytes();
+
+        AtomicLong peak = new AtomicLong(baseline);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                peak.accumulateAndGet(residentBytes(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }, "MemorySampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long elapsed;
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            elapsed = new ProducerWithMultipleConsumersSimulator(agents, users, 0, handlingMillis, mode, dispatchMode)
+                    .run();
+        } finally {
+            System.setOut(out);
+            running.set(false);
+            sampler.join();
+        }
+
+        return new double[]{users * 1e9 / elapsed, Math.max(0, peak.get() - baseline)};
+    }
+
+    /**
+     * Run one overloaded simulation and print a row of its statistics.
+     *
+     */
+    private static void measureBackpressure(String label, int capacity,
+                                            ProducerWithMultipleConsumersSimulator.BackpressurePolicy policy)
+            throws InterruptedException {
+        ProducerWithMultipleConsumersSimulator simulator = new ProducerWithMultipleConsumersSimulator(
+                BACKPRESSURE_AGENTS, BACKPRESSURE_PRODUCERS, BACKPRESSURE_USERS, 0, BACKPRESSURE_HANDLING_MILLIS,
+                ProducerWithMultipleConsumersSimulator.ExecutionMode.PLATFORM_THREADS,
+                ProducerWithMultipleConsumersSimulator.DispatchMode.SHARED_QUEUE, capacity, policy);
+
+        long elapsed;
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            elapsed = simulator.run();
+        } finally {
+            System.setOut(out);
+        }
+
+        ProducerWithMultipleConsumersSimulator.Statistics statistics = simulator.getStatistics();
+        System.out.printf("%-12s %10.0f %10d %10d %10d %10.1f %10.1f %10.1f%n", label,
+                BACKPRESSURE_USERS * 1e9 / elapsed, statistics.discardedCount(),
+                statistics.queueDepthPercentile(50), statistics.queueDepthPercentile(100),
+                statistics.latencyPercentile(50) / 1e6, statistics.latencyPercentile(99) / 1e6,
+                statistics.latencyPercentile(99.9) / 1e6);
+    }
+
+    /**
+     * Run simulations of 10,000 users back to back, on new threads when executor is null, and return average time to
+     * drain all users and average time to shut agents down, in nanoseconds. First run only warms up.
+     *
+     */
+    private static double[] measureShutdown(int agents, ExecutorService executor) throws InterruptedException {
+        long drainNanos = 0;
+        long shutdownNanos = 0;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int run = 0; run <= SHUTDOWN_RUNS; run++) {
+                ProducerWithMultipleConsumersSimulator simulator = new ProducerWithMultipleConsumersSimulator(agents,
+                        SHUTDOWN_USERS, 0, 0, ProducerWithMultipleConsumersSimulator.ExecutionMode.PLATFORM_THREADS);
+
+                long drain = executor == null ? simulator.run() : simulator.run(executor);
+                if (run > 0) {
+                    drainNanos += drain;
+                    shutdownNanos += simulator.getShutdownNanos();
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        return new double[]{(double) drainNanos / SHUTDOWN_RUNS, (double) shutdownNanos / SHUTDOWN_RUNS};
+    }
+
+    /**
+     * Resident memory of this process from /proc/self/status, 0 where /proc is not available.
+     *
+     */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS")) {
+                    String kilobytes = line.substring(line.indexOf(':') + 1).replace("kB", "").trim();
+                    return Long.parseLong(kilobytes) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // not Linux
+        }
+
+        return 0;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long handlingMillis = args.length > 0 ? Long.parseLong(args[0]) : 50;
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors()
+                + ", handling time: " + handlingMillis + " ms, users per agent: " + USERS_PER_AGENT);
+        System.out.printf("%-10s %-18s %14s %14s %14s%n", "Agents", "Mode", "Users/s", "Ideal users/s", "RSS MB");
+
+        for (int agents : AGENT_COUNTS) {
+            for (ProducerWithMultipleConsumersSimulator.ExecutionMode mode
+                    : ProducerWithMultipleConsumersSimulator.ExecutionMode.values()) {
+                if (mode == ProducerWithMultipleConsumersSimulator.ExecutionMode.PLATFORM_THREADS
+                        && agents > MAX_PLATFORM_AGENTS) {
+                    continue;
+                }
+
+                double[] result = measure(mode, ProducerWithMultipleConsumersSimulator.DispatchMode.SHARED_QUEUE,
+                        agents, agents * USERS_PER_AGENT, handlingMillis);
+                double ideal = handlingMillis == 0 ? Double.NaN : agents * 1000.0 / handlingMillis;
+
+                System.out.printf("%-10d %-18s %14.0f %14.0f %14.1f%n", agents, mode, result[0], ideal,
+                        result[1] / (1024 * 1024));
+            }
+        }
+
+        System.out.printf("%n%-10s %14s%n", "Agents", "Users/s (" + HANDOFF_USERS + " users, no sleep)");
+        for (int agents : HANDOFF_AGENT_COUNTS) {
+            double[] result = measure(ProducerWithMultipleConsumersSimulator.ExecutionMode.PLATFORM_THREADS,
+                    ProducerWithMultipleConsumersSimulator.DispatchMode.SHARED_QUEUE, agents, HANDOFF_USERS, 0);
+
+            System.out.printf("%-10d %14.0f%n", agents, result[0]);
+        }
+
+        System.out.printf("%n%-10s %16s %16s%n", "Agents", "Shared queue", "Work stealing");
+        for (int agents : DISPATCH_AGENT_COUNTS) {
+            double[] shared = measure(ProducerWithMultipleConsumersSimulator.ExecutionMode.PLATFORM_THREADS,
+                    ProducerWithMultipleConsumersSimulator.DispatchMode.SHARED_QUEUE, agents, DISPATCH_USERS, 0);
+            double[] stealing = measure(ProducerWithMultipleConsumersSimulator.ExecutionMode.PLATFORM_THREADS,
+                    ProducerWithMultipleConsumersSimulator.DispatchMode.WORK_STEALING, agents, DISPATCH_USERS, 0);
+
+            System.out.printf("%-10d %16.0f %16.0f%n", agents, shared[0], stealing[0]);
+        }
+        System.out.println("(users per second, " + DISPATCH_USERS + " users, no sleep)");
+
+        System.out.printf("%n%-12s %10s %10s %10s %10s %10s %10s %10s%n", "Policy", "Users/s", "Discarded",
+                "Depth p50", "Depth max", "p50 ms", "p99 ms", "p99.9 ms");
+        measureBackpressure("Unbounded", Integer.MAX_VALUE,
+                ProducerWithMultipleConsumersSimulator.BackpressurePolicy.BLOCK);
+        for (ProducerWithMultipleConsumersSimulator.BackpressurePolicy policy
+                : ProducerWithMultipleConsumersSimulator.BackpressurePolicy.values()) {
+            measureBackpressure(policy.toString(), BACKPRESSURE_CAPACITY, policy);
+        }
+
+        System.out.printf("%n%-10s %-14s %12s %14s%n", "Agents", "Threads", "Drain ms", "Shutdown ms");
+        for (int agents : SHUTDOWN_AGENT_COUNTS) {
+            double[] fresh = measureShutdown(agents, null);
+            System.out.printf("%-10d %-14s %12.2f %14.2f%n", agents, "New per run", fresh[0] / 1e6, fresh[1] / 1e6);
+
+            ExecutorService pool = Executors.newCachedThreadPool();
+            try {
+                double[] pooled = measureShutdown(agents, pool);
+                System.out.printf("%-10d %-14s %12.2f %14.2f%n", agents, "Pooled", pooled[0] / 1e6,
+                        pooled[1] / 1e6);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        System.out.println("(" + SHUTDOWN_USERS + " users, no sleep, average of " + SHUTDOWN_RUNS + " runs)");
+    }
+}
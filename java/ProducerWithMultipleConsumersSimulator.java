@@ -1,6 +1,21 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Simulation of a Producer with multiple consumers.
@@ -12,7 +27,25 @@ import java.util.concurrent.LinkedBlockingQueue;
  * Produce a simulation of messages saying - User added, User handled per user and all users done when simulation
  * completes.
  *
- * Important note - User added message for any user "N" must appear before message saying "handling user N".
+ * Important note - User added message for any user "N" must appear before message saying "handling user N". Producer
+ * prints that message before it hands user over, and every dispatcher hands users over with happens-before, so no
+ * lock on the user is needed for the ordering.
+ *
+ * Number of agents, number of users and both intervals are configurable, and agents run either on platform threads
+ * or on virtual threads, see {@link ExecutionMode}. An agent spends nearly all its time blocked in sleep or take, so
+ * with virtual threads thousands of agents share a few carrier threads instead of needing an OS thread each.
+ *
+ * Users are handed to agents by a {@link UserDispatcher}: either one queue shared by all agents, or a deque per agent
+ * with work stealing, see {@link DispatchMode}.
+ *
+ * Any number of producers can add users, taking unique ids from one shared atomic sequence. Queue can be bounded, and
+ * a {@link BackpressurePolicy} decides what a producer does when it is full. {@link Statistics} counts discarded
+ * users and records queue depth, and every user is timestamped when it is enqueued, dequeued by an agent and
+ * completed, giving queue wait, service time and total latency histograms plus busy time of each agent. See
+ * {@link Statistics#summary()} for a report to size agent pools with.
+ *
+ * Once every user is handled or discarded, every agent gets a poison pill and returns, so producers and agents can run
+ * on a pooled executor which is reused for the next simulation, see {@link #run(ExecutorService)}.
  *
  * @author Prabhash Rathore
  *
@@ -22,6 +55,11 @@ public class ProducerWithMultipleConsumersSimulator {
     public static class User {
         private int id;
 
+        // System.nanoTime when user was put to dispatcher, taken by an agent and done being handled
+        private long enqueuedNanos;
+        private long dequeuedNanos;
+        private long completedNanos;
+
         public User(int id) {
             this.id = id;
         }
@@ -32,21 +70,468 @@ public class ProducerWithMultipleConsumersSimulator {
         }
     }
 
-    // Blocking Queue is used to make sure consumer block until user is added to queue
-    private BlockingQueue<User> queue;
+    /**
+     * Kind of threads producer and agents run on.
+     */
+    public enum ExecutionMode {
+        /** One OS thread per agent. */
+        PLATFORM_THREADS,
+        /** One virtual thread per agent, a blocked agent is unmounted from its carrier thread. */
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * How users get from producer to agents.
+     */
+    public enum DispatchMode {
+        /** All agents take from one queue. */
+        SHARED_QUEUE,
+        /** Producer spreads users over a deque per agent, idle agents steal from other agents' deques. */
+        WORK_STEALING
+    }
+
+    /**
+     * What a producer does with a new user when queue is full.
+     */
+    public enum BackpressurePolicy {
+        /** Wait for room, slowing producer down to pace of agents. */
+        BLOCK,
+        /** Discard the oldest waiting user to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new user. */
+        REJECT
+    }
+
+    /**
+     * Counters and histograms of a simulation run. Histograms are the ones {@link CacheStats} uses for latency, all
+     * times are in nanoseconds.
+     *
+     * Utilization of an agent is the share of the run it spent handling users, i.e. between taking a user and
+     * completing it, as opposed to waiting for one.
+     */
+    public static class Statistics {
+        // busy time and handled users are 8 longs apart per agent so agents do not share cache lines
+        private static final int AGENT_STRIDE = 8;
+
+        private final LongAdder handled = new LongAdder();
+        private final LongAdder discarded = new LongAdder();
+        private final CacheStats.LatencyHistogram queueDepth = new CacheStats.LatencyHistogram();
+        private final CacheStats.LatencyHistogram queueWait = new CacheStats.LatencyHistogram();
+        private final CacheStats.LatencyHistogram serviceTime = new CacheStats.LatencyHistogram();
+        private final CacheStats.LatencyHistogram latency = new CacheStats.LatencyHistogram();
+
+        private final int agents;
+        private final AtomicLongArray agentBusyNanos;
+        private final AtomicLongArray agentHandled;
+
+        private volatile long elapsedNanos;
+
+        public Statistics(int agents) {
+            this.agents = agents;
+            this.agentBusyNanos = new AtomicLongArray(agents * AGENT_STRIDE);
+            this.agentHandled = new AtomicLongArray(agents * AGENT_STRIDE);
+        }
+
+        /**
+         * Record a user handled by given agent, from its enqueue, dequeue and completion timestamps.
+         *
+         */
+        public void recordHandled(int agent, User user) {
+            long serviceNanos = user.completedNanos - user.dequeuedNanos;
+
+            handled.increment();
+            queueWait.record(user.dequeuedNanos - user.enqueuedNanos);
+            serviceTime.record(serviceNanos);
+            latency.record(user.completedNanos - user.enqueuedNanos);
+
+            agentBusyNanos.getAndAdd(agent * AGENT_STRIDE, serviceNanos);
+            agentHandled.getAndIncrement(agent * AGENT_STRIDE);
+        }
+
+        public void recordDiscarded() {
+            discarded.increment();
+        }
+
+        public void recordQueueDepth(int depth) {
+            queueDepth.record(depth);
+        }
+
+        /**
+         * Record length of the run, which utilization is relative to.
+         *
+         */
+        public void recordElapsed(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long handledCount() {
+            return handled.sum();
+        }
+
+        public long discardedCount() {
+            return discarded.sum();
+        }
+
+        /**
+         * Time from user being added until being handled at given percentile.
+         *
+         */
+        public long latencyPercentile(double percentile) {
+            return latency.percentile(percentile);
+        }
+
+        /**
+         * Time from user being added until an agent took it at given percentile.
+         *
+         */
+        public long queueWaitPercentile(double percentile) {
+            return queueWait.percentile(percentile);
+        }
+
+        /**
+         * Time from an agent taking user until being done with it at given percentile.
+         *
+         */
+        public long serviceTimePercentile(double percentile) {
+            return serviceTime.percentile(percentile);
+        }
+
+        public long queueDepthPercentile(double percentile) {
+            return queueDepth.percentile(percentile);
+        }
+
+        public long agentHandledCount(int agent) {
+            return agentHandled.get(agent * AGENT_STRIDE);
+        }
+
+        /**
+         * Share of recorded run given agent was busy, between 0 and 1. 0 until run length is recorded.
+         *
+         */
+        public double agentUtilization(int agent) {
+            long elapsed = elapsedNanos;
+            return elapsed == 0 ? 0 : Math.min(1.0, (double) agentBusyNanos.get(agent * AGENT_STRIDE) / elapsed);
+        }
+
+        /**
+         * Multi line report of throughput, latency breakdown and agent utilization.
+         *
+         */
+        public String summary() {
+            double minUtilization = 1;
+            double maxUtilization = 0;
+            double totalUtilization = 0;
+            for (int agent = 0; agent < agents; agent++) {
+                double utilization = agentUtilization(agent);
+                minUtilization = Math.min(minUtilization, utilization);
+                maxUtilization = Math.max(maxUtilization, utilization);
+                totalUtilization += utilization;
+            }
+
+            long elapsed = elapsedNanos;
+            return String.format("Users handled: %d, discarded: %d, in %.1f ms, %.1f users/s%n",
+                    handledCount(), discardedCount(), elapsed / 1e6,
+                    elapsed == 0 ? 0 : handledCount() * 1e9 / elapsed)
+                    + String.format("Queue depth p50/p99/max: %d/%d/%d%n", queueDepth.percentile(50),
+                    queueDepth.percentile(99), queueDepth.percentile(100))
+                    + percentiles("Queue wait", queueWait)
+                    + percentiles("Service time", serviceTime)
+                    + percentiles("Total latency", latency)
+                    + String.format("Agent utilization avg/min/max: %.1f%%/%.1f%%/%.1f%% of %d agents",
+                    100 * totalUtilization / agents, 100 * minUtilization, 100 * maxUtilization, agents);
+        }
+
+        private static String percentiles(String label, CacheStats.LatencyHistogram histogram) {
+            return String.format("%s ms p50/p99/p99.9/max: %.3f/%.3f/%.3f/%.3f%n", label,
+                    histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6,
+                    histogram.percentile(99.9) / 1e6, histogram.percentile(100) / 1e6);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("handled: %d, discarded: %d, queue depth p50/p99/max: %d/%d/%d, "
+                            + "latency p50/p99/p99.9 ms: %.3f/%.3f/%.3f",
+                    handledCount(), discardedCount(), queueDepth.percentile(50), queueDepth.percentile(99),
+                    queueDepth.percentile(100), latency.percentile(50) / 1e6, latency.percentile(99) / 1e6,
+                    latency.percentile(99.9) / 1e6);
+        }
+    }
+
+    // handed to an agent to make it stop, compared by identity
+    private static final User POISON_PILL = new User(0);
+
+    /**
+     * Hands users over from producer to agents. put happens-before the take which returns the same user.
+     */
+    public interface UserDispatcher {
+        /**
+         * Add user, applying backpressure policy of this dispatcher when it is full.
+         *
+         */
+        void put(User user) throws InterruptedException;
+
+        /**
+         * Next user for given agent, numbered from 0. Block until there is one.
+         *
+         */
+        User take(int agent) throws InterruptedException;
+
+        /**
+         * Add given number of poison pills, waiting for room instead of applying backpressure policy so that no pill
+         * gets lost. Every agent returns after taking one.
+         *
+         */
+        void putPoisonPills(int count) throws InterruptedException;
+
+        /**
+         * Number of users waiting, approximate while producers or agents are running.
+         *
+         */
+        int size();
+    }
+
+    /**
+     * One blocking queue shared by all agents. Every put and take goes through the same queue, so its locks are
+     * contended by all agents.
+     */
+    public static class SharedQueueDispatcher implements UserDispatcher {
+        // Blocking Queue is used to make sure consumer block until user is added to queue
+        private final BlockingQueue<User> queue;
+        private final BackpressurePolicy backpressurePolicy;
+        private final Consumer<User> discardListener;
+
+        /**
+         * @param discardListener called with every user dropped or rejected because queue is full
+         */
+        public SharedQueueDispatcher(int capacity, BackpressurePolicy backpressurePolicy,
+                                     Consumer<User> discardListener) {
+            this.queue = new LinkedBlockingQueue<>(capacity);
+            this.backpressurePolicy = backpressurePolicy;
+            this.discardListener = discardListener;
+        }
+
+        @Override
+        public void put(User user) throws InterruptedException {
+            putWithBackpressure(queue, user, backpressurePolicy, discardListener);
+        }
+
+        @Override
+        public User take(int agent) throws InterruptedException {
+            return queue.take();
+        }
+
+        @Override
+        public void putPoisonPills(int count) throws InterruptedException {
+            for (int i = 0; i < count; i++) {
+                queue.put(POISON_PILL);
+            }
+        }
+
+        @Override
+        public int size() {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Deque per agent, similar to ForkJoinPool. Producer deals users round robin to the tail of each deque, an agent
+     * takes from head of its own deque and, when that is empty, steals from tail of another agent's deque starting
+     * at a random one. So an agent usually only meets the producer on its deque, and thieves take from the opposite
+     * end. An agent which finds no work anywhere waits on its own deque for a short while and then looks again.
+     *
+     * Users are no longer handled strictly in order they were added.
+     */
+    public static class WorkStealingDispatcher implements UserDispatcher {
+        private static final long IDLE_WAIT_MICROS = 1000;
+
+        private final List<BlockingDeque<User>> deques;
+        private final BackpressurePolicy backpressurePolicy;
+        private final Consumer<User> discardListener;
+
+        // shared by producers, next deque to deal to is this modulo number of deques
+        private final AtomicInteger nextDeque = new AtomicInteger();
+
+        /**
+         * @param capacity total capacity, split evenly over the deques
+         * @param discardListener called with every user dropped or rejected because a deque is full
+         */
+        public WorkStealingDispatcher(int agents, int capacity, BackpressurePolicy backpressurePolicy,
+                                      Consumer<User> discardListener) {
+            int dequeCapacity = capacity == Integer.MAX_VALUE ? capacity : Math.max(1, capacity / agents);
+
+            this.deques = new ArrayList<>(agents);
+            for (int i = 0; i < agents; i++) {
+                deques.add(new LinkedBlockingDeque<>(dequeCapacity));
+            }
+
+            this.backpressurePolicy = backpressurePolicy;
+            this.discardListener = discardListener;
+        }
+
+        @Override
+        public void put(User user) throws InterruptedException {
+            int deque = Math.floorMod(nextDeque.getAndIncrement(), deques.size());
+            putWithBackpressure(deques.get(deque), user, backpressurePolicy, discardListener);
+        }
+
+        @Override
+        public User take(int agent) throws InterruptedException {
+            BlockingDeque<User> own = deques.get(agent);
+
+            while (true) {
+                User user = own.pollFirst();
+                if (user == null) {
+                    user = steal(agent);
+                }
+
+                if (user == null) {
+                    user = own.pollFirst(IDLE_WAIT_MICROS, TimeUnit.MICROSECONDS);
+                }
+
+                if (user != null) {
+                    return user;
+                }
+            }
+        }
+
+        /**
+         * One pill per deque. A thief may take another agent's pill and return, which leaves one pill fewer for one
+         * agent fewer, so every agent still gets exactly one.
+         *
+         */
+        @Override
+        public void putPoisonPills(int count) throws InterruptedException {
+            for (int i = 0; i < count; i++) {
+                deques.get(i % deques.size()).putLast(POISON_PILL);
+            }
+        }
+
+        private User steal(int thief) {
+            int size = deques.size();
+            int start = ThreadLocalRandom.current().nextInt(size);
+
+            for (int i = 0; i < size; i++) {
+                int victim = start + i < size ? start + i : start + i - size;
+                if (victim == thief) {
+                    continue;
+                }
+
+                User user = deques.get(victim).pollLast();
+                if (user != null) {
+                    return user;
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (BlockingDeque<User> deque : deques) {
+                size += deque.size();
+            }
+
+            return size;
+        }
+    }
+
+    /**
+     * Add user to a bounded queue, or to tail of a deque, applying backpressure policy when it is full.
+     *
+     */
+    private static void putWithBackpressure(BlockingQueue<User> queue, User user, BackpressurePolicy policy,
+                                            Consumer<User> discardListener) throws InterruptedException {
+        switch (policy) {
+            case BLOCK:
+                queue.put(user);
+                break;
+            case REJECT:
+                if (!queue.offer(user)) {
+                    discardListener.accept(user);
+                }
+                break;
+            default:
+                // other producers may take the room we made, so keep dropping until new user fits
+                while (!queue.offer(user)) {
+                    User oldest = queue.poll();
+                    if (oldest != null) {
+                        discardListener.accept(oldest);
+                    }
+                }
+                break;
+        }
+    }
+
+    private UserDispatcher dispatcher;
     private CountDownLatch countDownLatch;
+    private Statistics statistics;
+    private BackpressurePolicy backpressurePolicy;
 
+    private int agents;
+    private int producers;
     private int maxUsers;
-    private int timeIntervalToAddUserInSec;
-    private int timeIntervalToHanldeUserReqInSec;
+    private long timeIntervalToAddUserInMillis;
+    private long timeToHandleUserReqInMillis;
+    private ExecutionMode executionMode;
+
+    // time from last user done until every agent and producer returned, in nanoseconds
+    private long shutdownNanos;
 
     public ProducerWithMultipleConsumersSimulator() {
-        this.queue = new LinkedBlockingQueue<>();
+        this(2, 6, 2000, 4000, ExecutionMode.PLATFORM_THREADS);
+    }
 
-        this.maxUsers = 6;
-        this.timeIntervalToAddUserInSec = 2;
+    public ProducerWithMultipleConsumersSimulator(int agents, int maxUsers, long timeIntervalToAddUserInMillis,
+                                                  long timeToHandleUserReqInMillis, ExecutionMode executionMode) {
+        this(agents, maxUsers, timeIntervalToAddUserInMillis, timeToHandleUserReqInMillis, executionMode,
+                DispatchMode.SHARED_QUEUE);
+    }
 
-        this.timeIntervalToHanldeUserReqInSec = 4;
+    public ProducerWithMultipleConsumersSimulator(int agents, int maxUsers, long timeIntervalToAddUserInMillis,
+                                                  long timeToHandleUserReqInMillis, ExecutionMode executionMode,
+                                                  DispatchMode dispatchMode) {
+        this(agents, 1, maxUsers, timeIntervalToAddUserInMillis, timeToHandleUserReqInMillis, executionMode,
+                dispatchMode, Integer.MAX_VALUE, BackpressurePolicy.BLOCK);
+    }
+
+    /**
+     * @param producers number of producer threads, users are split evenly between them
+     * @param queueCapacity most users waiting to be handled, Integer.MAX_VALUE for unbounded
+     * @param backpressurePolicy what producers do when queue is full
+     */
+    public ProducerWithMultipleConsumersSimulator(int agents, int producers, int maxUsers,
+                                                  long timeIntervalToAddUserInMillis,
+                                                  long timeToHandleUserReqInMillis, ExecutionMode executionMode,
+                                                  DispatchMode dispatchMode, int queueCapacity,
+                                                  BackpressurePolicy backpressurePolicy) {
+        if (agents <= 0 || producers <= 0 || maxUsers <= 0) {
+            throw new IllegalArgumentException("Invalid agents: " + agents + ", producers: " + producers
+                    + " or users: " + maxUsers);
+        }
+
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+        }
+
+        if (timeIntervalToAddUserInMillis < 0 || timeToHandleUserReqInMillis < 0) {
+            throw new IllegalArgumentException("Invalid time interval: " + timeIntervalToAddUserInMillis + ", "
+                    + timeToHandleUserReqInMillis);
+        }
+
+        this.dispatcher = dispatchMode == DispatchMode.WORK_STEALING
+                ? new WorkStealingDispatcher(agents, queueCapacity, backpressurePolicy, this::discard)
+                : new SharedQueueDispatcher(queueCapacity, backpressurePolicy, this::discard);
+        this.statistics = new Statistics(agents);
+        this.backpressurePolicy = backpressurePolicy;
+
+        this.agents = agents;
+        this.producers = producers;
+        this.maxUsers = maxUsers;
+        this.timeIntervalToAddUserInMillis = timeIntervalToAddUserInMillis;
+
+        this.timeToHandleUserReqInMillis = timeToHandleUserReqInMillis;
+        this.executionMode = executionMode;
 
         this.countDownLatch = new CountDownLatch(maxUsers);
     }
@@ -56,71 +541,101 @@ public class ProducerWithMultipleConsumersSimulator {
      */
     public static class AddUserRunnable implements Runnable {
 
-        private BlockingQueue<User> queue;
-        private int maxUsers;
-        private int timeIntervalToAddUserInSec;
+        // sample queue depth once every this many users
+        private static final int QUEUE_DEPTH_SAMPLE_MASK = 15;
 
-        public AddUserRunnable(BlockingQueue<User> queue, int maxUsers, int timeIntervalToAddUserInSec) {
-            this.queue = queue;
+        private UserDispatcher dispatcher;
+        private AtomicInteger idSequence;
+        private Statistics statistics;
+        private int maxUsers;
+        private long timeIntervalToAddUserInMillis;
+
+        /**
+         * @param idSequence sequence shared by all producers, next user id is taken from it
+         * @param maxUsers number of users this producer adds
+         */
+        public AddUserRunnable(UserDispatcher dispatcher, AtomicInteger idSequence, Statistics statistics,
+                               int maxUsers, long timeIntervalToAddUserInMillis) {
+            this.dispatcher = dispatcher;
+            this.idSequence = idSequence;
+            this.statistics = statistics;
             this.maxUsers = maxUsers;
-            this.timeIntervalToAddUserInSec = timeIntervalToAddUserInSec;
+            this.timeIntervalToAddUserInMillis = timeIntervalToAddUserInMillis;
         }
 
         @Override
         public void run() {
-            for (int i = 1; i <= maxUsers; i++) {
-                User user = new User(i);
+            for (int i = 0; i < maxUsers; i++) {
+                User user = new User(idSequence.incrementAndGet());
                 try {
 
-                    // Synchronization is needed to create message sequencing, i.e., this is needed to make sure
-                    // added user message of producer appears before handle user message of consumer
-                    synchronized (user) {
-                        queue.put(user);
-                        System.out.println(Thread.currentThread().getName() + " -> Added user id: " + i);
+                    // Message is printed before user is published. put happens-before the take which returns this
+                    // user, so added user message of producer appears before handle user message of consumer
+                    // without locking the user
+                    System.out.println(Thread.currentThread().getName() + " -> Added user id: " + user.id);
+                    user.enqueuedNanos = System.nanoTime();
+                    dispatcher.put(user);
+
+                    if ((i & QUEUE_DEPTH_SAMPLE_MASK) == 0) {
+                        statistics.recordQueueDepth(dispatcher.size());
                     }
 
-                    Thread.sleep(timeIntervalToAddUserInSec * 1000); // delay
+                    if (timeIntervalToAddUserInMillis > 0) {
+                        Thread.sleep(timeIntervalToAddUserInMillis); // delay
+                    }
                 } catch (InterruptedException ie) {
-                    ie.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
     }
 
     public static class HandleUserReqRunnable implements Runnable {
-        private BlockingQueue<User> queue;
+        private UserDispatcher dispatcher;
+        private int agent;
         private CountDownLatch countDownLatch;
-        private int timeIntervalToHanldeUserReqInSec;
-
-        public HandleUserReqRunnable(BlockingQueue<User> queue, int timeIntervalToHanldeUserReqInSec,
-                                     CountDownLatch countDownLatch) {
-            this.queue = queue;
-            this.timeIntervalToHanldeUserReqInSec = timeIntervalToHanldeUserReqInSec;
+        private Statistics statistics;
+        private long timeToHandleUserReqInMillis;
+
+        public HandleUserReqRunnable(UserDispatcher dispatcher, int agent, long timeToHandleUserReqInMillis,
+                                     CountDownLatch countDownLatch, Statistics statistics) {
+            this.dispatcher = dispatcher;
+            this.agent = agent;
+            this.statistics = statistics;
+            this.timeToHandleUserReqInMillis = timeToHandleUserReqInMillis;
             this.countDownLatch = countDownLatch;
         }
 
+        /**
+         * Handle users until a poison pill arrives. Agent also stops when interrupted, e.g. when simulation is
+         * cancelled.
+         *
+         */
         @Override
         public void run() {
-            while(countDownLatch.getCount() > 0) {
+            while (true) {
 
                 try {
-                    User user = queue.take(); // block here until queue has users
+                    User user = dispatcher.take(agent); // block here until there is a user for this agent
+                    if (user == POISON_PILL) {
+                        return;
+                    }
+                    user.dequeuedNanos = System.nanoTime();
 
-                    // Synchronized to make sure below message is printed only after Producer thread prints
-                    // it's message
-                    synchronized (user) {
-                        System.out.println(Thread.currentThread().getName() + " -> Handling request for user id: "
-                                + user.id);
+                    // Producer printed its message before putting user to dispatcher
+                    System.out.println(Thread.currentThread().getName() + " -> Handling request for user id: "
+                            + user.id);
+
+                    if (timeToHandleUserReqInMillis > 0) {
+                        Thread.sleep(timeToHandleUserReqInMillis);
                     }
 
+                    user.completedNanos = System.nanoTime();
+                    statistics.recordHandled(agent, user);
                 } catch (InterruptedException ie) {
-                    ie.printStackTrace();
-                }
-
-                try {
-                    Thread.sleep(timeIntervalToHanldeUserReqInSec * 1000);
-                } catch(InterruptedException ie) {
-                    ie.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    return;
                 }
 
                 countDownLatch.countDown();
@@ -128,33 +643,139 @@ public class ProducerWithMultipleConsumersSimulator {
         }
     }
 
-    public static void main(String[] args) {
-        System.out.println("=== Simulation of a Producer with multiple consumers ====\n");
+    /**
+     * Run simulation on new threads of kind given by execution mode, one per producer and agent. Returns time from
+     * start of producers until last user is handled, in nanoseconds.
+     *
+     */
+    public long run() throws InterruptedException {
+        ThreadFactory threadFactory = executionMode == ExecutionMode.VIRTUAL_THREADS
+                ? Thread.ofVirtual().factory()
+                : Thread.ofPlatform().daemon(true).factory();
 
-        ProducerWithMultipleConsumersSimulator simulator = new ProducerWithMultipleConsumersSimulator();
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(threadFactory)) {
+            return run(executor);
+        }
+    }
+
+    /**
+     * Run simulation with producers and agents as tasks of given executor, which must be able to run all of them at
+     * once, e.g. a cached thread pool. Once every user is done each agent gets a poison pill, and this method returns
+     * only after every task has returned, so the executor's threads are free for the next simulation. Returns time
+     * from start of producers until last user is handled, in nanoseconds.
+     *
+     */
+    public long run(ExecutorService executor) throws InterruptedException {
+        List<Future<?>> agentTasks = new ArrayList<>(agents);
+        List<Future<?>> producerTasks = new ArrayList<>(producers);
+
+        try {
+            // agents first so that timing covers handling users only, not creating agents
+            for (int i = 0; i < agents; i++) {
+                agentTasks.add(executor.submit(named("Agent" + (i + 1) + "Thread", new HandleUserReqRunnable(
+                        dispatcher, i, timeToHandleUserReqInMillis, countDownLatch, statistics))));
+            }
+
+            long begin = System.nanoTime();
+
+            AtomicInteger idSequence = new AtomicInteger();
+            for (int i = 0; i < producers; i++) {
+                String name = producers == 1 ? "UserProducerThread" : "UserProducer" + (i + 1) + "Thread";
+                int users = maxUsers / producers + (i < maxUsers % producers ? 1 : 0);
+
+                producerTasks.add(executor.submit(named(name, new AddUserRunnable(dispatcher, idSequence, statistics,
+                        users, timeIntervalToAddUserInMillis))));
+            }
+
+            countDownLatch.await(); // block until all workers are done handling users
+            long done = System.nanoTime();
+            statistics.recordElapsed(done - begin);
+
+            dispatcher.putPoisonPills(agents);
+            awaitAll(agentTasks);
+            awaitAll(producerTasks);
+
+            shutdownNanos = System.nanoTime() - done;
+
+            return done - begin;
+        } catch (InterruptedException ie) {
+            // cancelled, interrupt producers and agents instead of leaving them blocked on the executor
+            for (Future<?> task : agentTasks) {
+                task.cancel(true);
+            }
+
+            for (Future<?> task : producerTasks) {
+                task.cancel(true);
+            }
 
-        Thread userProducerThread = new Thread(new AddUserRunnable(simulator.queue, simulator.maxUsers,
-                simulator.timeIntervalToAddUserInSec), "UserProducerThread");
-        userProducerThread.setDaemon(true);
+            throw ie;
+        }
+    }
 
-        Thread agentOneThread = new Thread(new HandleUserReqRunnable(simulator.queue,
-                simulator.timeIntervalToHanldeUserReqInSec, simulator.countDownLatch), "Agent1Thread");
-        agentOneThread.setDaemon(true);
+    /**
+     * Time from last user being done until every agent and producer returned, of last run, in nanoseconds.
+     *
+     */
+    public long getShutdownNanos() {
+        return shutdownNanos;
+    }
 
-        Thread agentTwoThread = new Thread(new HandleUserReqRunnable(simulator.queue,
-                simulator.timeIntervalToHanldeUserReqInSec, simulator.countDownLatch), "Agent2Thread");
-        agentTwoThread.setDaemon(true);
+    public Statistics getStatistics() {
+        return statistics;
+    }
 
-        userProducerThread.start();
-        agentOneThread.start();
-        agentTwoThread.start();
+    private static void awaitAll(List<Future<?>> tasks) throws InterruptedException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Task which runs under given thread name, so log lines name the agent even on a pooled thread.
+     *
+     */
+    private static Runnable named(String name, Runnable task) {
+        return () -> {
+            Thread thread = Thread.currentThread();
+            String poolName = thread.getName();
+
+            thread.setName(name);
+            try {
+                task.run();
+            } finally {
+                thread.setName(poolName);
+            }
+        };
+    }
+
+    /**
+     * User dropped or rejected by backpressure is done as well, as far as waiting for all users is concerned.
+     *
+     */
+    private void discard(User user) {
+        System.out.println(Thread.currentThread().getName() + " -> "
+                + (backpressurePolicy == BackpressurePolicy.REJECT ? "Rejected" : "Dropped") + " user id: " + user.id);
+
+        statistics.recordDiscarded();
+        countDownLatch.countDown();
+    }
+
+    public static void main(String[] args) {
+        System.out.println("=== Simulation of a Producer with multiple consumers ====\n");
+
+        ProducerWithMultipleConsumersSimulator simulator = new ProducerWithMultipleConsumersSimulator();
 
         try {
-            simulator.countDownLatch.await(); // block main thread until all workers are done handling users
+            simulator.run();
         } catch (InterruptedException ie) {
             ie.printStackTrace();
         }
 
         System.out.println("\n" + Thread.currentThread().getName() + " -> All the user requests are handled!!");
+        System.out.println("\n" + simulator.getStatistics().summary());
     }
 }
@@ -0,0 +1,257 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safe LRU Cache which stores integers as data and serves cache hits without taking any lock.
+ *
+ * This follows the BP-Wrapper idea. Lookups go through a {@link ConcurrentHashMap} and, instead of reordering the
+ * LRU list on every hit, the accessed node is recorded in a small ring buffer striped by thread. Buffers are lossy:
+ * when a buffer is full or a slot is contended the access is simply dropped, which only makes the recency order a
+ * little less precise. Once a buffer fills up, the reading thread tries to acquire the eviction lock and, if it
+ * succeeds, replays all buffered accesses in one batch. Readers never block on the lock.
+ *
+ * Puts take the eviction lock since they have to link new nodes and evict the least recently used ones.
+ *
+ * @author Prabhash Rathore
+ */
+public class ReadBufferedLRUCache {
+
+    private static final int BUFFER_SIZE = 64;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    public static class Node {
+        private final int key;
+        private volatile int value;
+
+        // guarded by eviction lock
+        private Node prev;
+        private Node next;
+        private boolean evicted;
+
+        public Node(int key, int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Lossy multiple producer ring buffer of accessed nodes. Only the thread holding the eviction lock consumes it.
+     */
+    private static class ReadBuffer {
+        private final AtomicLong writeCounter = new AtomicLong();
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(BUFFER_SIZE);
+
+        // guarded by eviction lock
+        private long readCounter;
+
+        /**
+         * Record an access and return number of pending accesses, or -1 if the access was dropped.
+         *
+         */
+        private long offer(Node node) {
+            long write = writeCounter.get();
+            long pending = write - readCounter;
+
+            if (pending >= BUFFER_SIZE || !writeCounter.compareAndSet(write, write + 1)) {
+                return -1;
+            }
+
+            slots.lazySet((int) (write & BUFFER_MASK), node);
+            return pending + 1;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Node> map;
+    private final ReadBuffer[] readBuffers;
+    private final ReentrantLock evictionLock;
+
+    // sentinel nodes, guarded by eviction lock
+    private final Node head;
+    private final Node tail;
+
+    private final int capacity;
+    private int size;
+
+    public ReadBufferedLRUCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.size = 0;
+
+        this.map = new ConcurrentHashMap<>(capacity * 2);
+        this.evictionLock = new ReentrantLock();
+
+        int bufferCount = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+        this.readBuffers = new ReadBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+
+        this.head = new Node(-1, -1);
+        this.tail = new Node(-1, -1);
+
+        this.head.next = this.tail;
+        this.tail.prev = this.head;
+    }
+
+    public int get(int key) {
+        Node node = map.get(key);
+        if (node == null) {
+            return -1;
+        }
+
+        recordAccess(node);
+
+        return node.value;
+    }
+
+    public void put(int key, int value) {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+
+            Node node = map.get(key);
+            if (node != null) {
+                node.value = value;
+
+                // update order
+                removeNode(node);
+                moveToHead(node);
+                return;
+            }
+
+            node = new Node(key, value);
+            map.put(key, node);
+            moveToHead(node);
+
+            size++;
+
+            if (size > capacity) {
+                removeTailFromCache();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void recordAccess(Node node) {
+        ReadBuffer buffer = readBuffers[bufferIndex()];
+
+        long pending = buffer.offer(node);
+        if ((pending == -1 || pending >= DRAIN_THRESHOLD) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private int bufferIndex() {
+        int h = (int) Thread.currentThread().threadId() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (readBuffers.length - 1);
+    }
+
+    /**
+     * Replay buffered accesses on LRU list. Must be called with eviction lock held.
+     *
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            long write = buffer.writeCounter.get();
+
+            while (buffer.readCounter < write) {
+                int index = (int) (buffer.readCounter & BUFFER_MASK);
+
+                Node node = buffer.slots.get(index);
+                if (node == null) {
+                    // slot claimed but writer has not stored the node yet, pick it up on next drain
+                    break;
+                }
+
+                buffer.slots.lazySet(index, null);
+                buffer.readCounter++;
+
+                if (!node.evicted) {
+                    removeNode(node);
+                    moveToHead(node);
+                }
+            }
+        }
+    }
+
+    private void removeNode(Node node) {
+        Node prev = node.prev;
+        Node next = node.next;
+
+        node.prev = null;
+        node.next = null;
+
+        prev.next = next;
+        next.prev = prev;
+    }
+
+    private void moveToHead(Node node) {
+        Node next = head.next;
+
+        head.next = node;
+        node.prev = head;
+
+        node.next = next;
+        next.prev = node;
+    }
+
+    private void removeTailFromCache() {
+        Node tailNode = tail.prev;
+
+        removeNode(tailNode);
+        map.remove(tailNode.key, tailNode);
+        tailNode.evicted = true;
+
+        size--;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+
+        ReadBufferedLRUCache cache = new ReadBufferedLRUCache(3);
+
+        cache.put(1, 100);
+        cache.put(2, 200);
+        cache.put(3, 300);
+
+        // concurrent readers keep key 1 hot without taking any lock
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    cache.get(1);
+                }
+            }, "Reader" + t);
+            readers[t].start();
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        // buffered reads of key 1 are replayed before insert, so 2 is evicted
+        cache.put(4, 400);
+
+        int key = 1;
+        int value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        key = 2;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+
+        key = 4;
+        value = cache.get(key);
+        System.out.println("key: " + key + " ;Value: " + value);
+    }
+}
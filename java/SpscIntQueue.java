@@ -0,0 +1,228 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed size Bounded Queue of ints for exactly one producer thread and one consumer thread.
+ *
+ * With a single producer and a single consumer no locks and no CAS are needed. Producer owns the tail index and
+ * consumer owns the head index; each side publishes its index with a release store and reads the other side's index
+ * with an acquire load. On top of that each side keeps a cached copy of the other side's index and only reloads it
+ * when the cached value says queue is full (or empty), so in steady state a thread mostly touches its own cache line.
+ *
+ * Indices and cached copies are padded apart inside one long array, since JVM is free to reorder padding fields.
+ *
+ * A blocking offer or poll spins, then yields, and only parks once the queue has stayed full or empty for a while.
+ * Parking is timed: the other side unparks a parked thread right after publishing, and if that wakeup is lost to a
+ * race the parked thread rechecks after at most {@link #PARK_NANOS} anyway. A waiting thread responds to interruption
+ * by throwing InterruptedException.
+ *
+ * For best results run producer and consumer on two dedicated cores, e.g. with taskset, since Java has no thread
+ * affinity API.
+ *
+ * @author Prabhash Rathore
+ */
+public class SpscIntQueue {
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // producer fields, consumer fields, each group on its own cache lines with 128 bytes of padding around
+    private static final int TAIL = 16;
+    private static final int CACHED_HEAD = 17;
+    private static final int HEAD = 32;
+    private static final int CACHED_TAIL = 33;
+    private static final int STATE_LENGTH = 48;
+
+    private static final int SPIN_TRIES = 1000;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    /** Returned by tryPoll when queue is empty. */
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    private final long[] state;
+    private final int[] buffer;
+    private final int mask;
+    private final int capacity;
+
+    private volatile Thread parkedProducer;
+    private volatile Thread parkedConsumer;
+
+    /**
+     * @param capacity rounded up to next power of two
+     */
+    public SpscIntQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.buffer = new int[size];
+        this.state = new long[STATE_LENGTH];
+    }
+
+    /**
+     * Add value if there is room. Returns false when queue is full. Must only be called by the producer thread.
+     *
+     */
+    public boolean tryOffer(int value) {
+        long tail = state[TAIL];
+
+        if (tail - state[CACHED_HEAD] >= capacity) {
+            state[CACHED_HEAD] = (long) LONGS.getAcquire(state, HEAD);
+            if (tail - state[CACHED_HEAD] >= capacity) {
+                return false;
+            }
+        }
+
+        buffer[(int) tail & mask] = value;
+        LONGS.setRelease(state, TAIL, tail + 1);
+
+        Thread consumer = parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the oldest value. Returns {@link #EMPTY} when queue is empty. Must only be called by the consumer thread.
+     *
+     */
+    public long tryPoll() {
+        long head = state[HEAD];
+
+        if (head >= state[CACHED_TAIL]) {
+            state[CACHED_TAIL] = (long) LONGS.getAcquire(state, TAIL);
+            if (head >= state[CACHED_TAIL]) {
+                return EMPTY;
+            }
+        }
+
+        int value = buffer[(int) head & mask];
+        LONGS.setRelease(state, HEAD, head + 1);
+
+        Thread producer = parkedProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+
+        return value;
+    }
+
+    /**
+     * Add new value to queue. Wait if queue is full.
+     *
+     */
+    public void offer(int value) throws InterruptedException {
+        int tries = 0;
+        while (!tryOffer(value)) {
+            // parkNanos returns immediately while interrupt flag is set, so waiting on would turn into a busy spin
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (tries < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                parkedProducer = Thread.currentThread();
+
+                // consumer may have made room before it could see us parked
+                if (state[TAIL] - (long) LONGS.getAcquire(state, HEAD) >= capacity) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+
+                parkedProducer = null;
+                continue;
+            }
+
+            tries++;
+        }
+    }
+
+    /**
+     * Remove the oldest element from queue. Wait if queue is empty.
+     *
+     */
+    public int poll() throws InterruptedException {
+        int tries = 0;
+        while (true) {
+            long value = tryPoll();
+            if (value != EMPTY) {
+                return (int) value;
+            }
+
+            // parkNanos returns immediately while interrupt flag is set, so waiting on would turn into a busy spin
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (tries < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                parkedConsumer = Thread.currentThread();
+
+                // producer may have published before it could see us parked
+                if (state[HEAD] >= (long) LONGS.getAcquire(state, TAIL)) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+
+                parkedConsumer = null;
+                continue;
+            }
+
+            tries++;
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("SPSC Int Queue");
+
+        SpscIntQueue queue = new SpscIntQueue(1024);
+        int messages = 50_000_000;
+
+        Thread t1 = new Thread(() -> {
+            try {
+                for (int i = 0; i < messages; i++) {
+                    queue.offer(i);
+                }
+            } catch (InterruptedException ie) {
+                System.out.println(Thread.currentThread().getName() + " interrupted, stopping");
+            }
+        }, "T1");
+
+        Thread t2 = new Thread(() -> {
+            long sum = 0;
+            try {
+                for (int i = 0; i < messages; i++) {
+                    sum += queue.poll();
+                }
+            } catch (InterruptedException ie) {
+                System.out.println(Thread.currentThread().getName() + " interrupted, stopping");
+            }
+            System.out.println("Sum of values removed: " + sum);
+        }, "T2");
+
+        long begin = System.nanoTime();
+        t1.start();
+        t2.start();
+        t1.join();
+        t2.join();
+        long elapsed = System.nanoTime() - begin;
+
+        System.out.printf("%d messages in %d ms, %.1f million per second%n", messages, elapsed / 1_000_000,
+                messages * 1e3 / elapsed);
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makespan benchmark of {@link TaskWorkerDelegationSimulator#executeTasksInParallel} for 100,000 tasks.
+ *
+ * Every run gives 3 stages of each task to a pool of worker threads, each stage taking the given stage time, and
+ * reports wall clock makespan next to two references: the lock step schedule of
+ * {@link TaskWorkerDelegationSimulator#executeTasks}, whose minutes are converted at the same stage time, and the
+ * lower bound of 3 x tasks / workers stages back to back. Platform threads and virtual threads are both run. Both
+ * references are computed rather than measured, so a sleep that overshoots the stage time only shows in makespan.
+ *
+ * Next part runs stages without any stage time, so dispatching and handing stages over is all the work there is, and
+ * reports task stages per second.
+ *
+ * Scheduling part assigns 1,000,000 tasks to 10,000 workers with the lock step schedule, reporting events to each
+ * kind of {@link TaskWorkerDelegationSimulator.EventSink} in turn, all writing to discarding outputs, and once with
+ * the parallel dispatcher on virtual threads without stage time. Reported are task stages assigned per second and
+ * heap used by the tasks once they are done.
+ *
+ * Simulation part runs {@link TaskWorkerDelegationSimulator#simulateTasks} on 1,000,000 tasks of 3 and of 10 stages,
+ * with stage durations of 1 to 10 and worker speeds of 0.5 to 2 drawn from a fixed seed, and reports task stages
+ * simulated per second.
+ *
+ * Schedule part compares minutes the lock step schedule and {@link
+ * TaskWorkerDelegationSimulator#executeTasksWithMatching} need on random inputs of up to 100,000 tasks with 1 to 6
+ * stages each, against the lower bound of max(most stages of a task, all stages / workers). Utilization is the share
+ * of worker minutes spent on a stage. Lock step hands workers out round robin and can give a worker a second stage
+ * in a minute when it skips a worker that already did the task, so stages given to a worker or to a task already
+ * busy that minute are counted from the events of both schedules; minutes only hold for inputs without any.
+ *
+ * Makespan near the lower bound needs a core free for the dispatcher whenever a stage completes. With few cores and
+ * many workers the dispatcher is the bottleneck, so compare rows of one machine only.
+ *
+ * Unless stated otherwise events of the simulator go to a {@link TaskWorkerDelegationSimulator.NoOpEventSink}.
+ *
+ * Run with: java TaskWorkerDelegationBenchmark [stageMillis]
+ *
+ * @author Prabhash Rathore
+ */
+public class TaskWorkerDelegationBenchmark {
+
+    private static final int TASKS = 100_000;
+    private static final int STAGES = 3;
+    private static final int[] WORKER_COUNTS = {64, 256, 1_024};
+
+    private static final int SCHEDULING_TASKS = 1_000_000;
+    private static final int SCHEDULING_WORKERS = 10_000;
+
+    private static final int SIMULATION_TASKS = 1_000_000;
+    private static final int[] SIMULATION_STAGES = {3, 10};
+    private static final int[] SIMULATION_WORKERS = {100, 10_000};
+    private static final int SIMULATION_RUNS = 3;
+
+    private static final int SCHEDULE_INPUTS = 8;
+    private static final int SCHEDULE_MAX_TASKS = 100_000;
+    private static final int SCHEDULE_MAX_WORKERS = 2_000;
+    private static final int SCHEDULE_MAX_STAGES = 6;
+
+    /**
+     * Counts stages given to a worker, or to a task, which already has a stage in the same minute.
+     */
+    private static class OverbookingSink extends TaskWorkerDelegationSimulator.NoOpEventSink {
+        private int[] busyWorkerMinutes;
+        private int[] busyTaskMinutes;
+        private int minute;
+        private int overbookedWorkers;
+        private int overbookedTasks;
+
+        @Override
+        public void begin(List<TaskWorkerDelegationSimulator.Task> tasks,
+                          List<TaskWorkerDelegationSimulator.Worker> workers) {
+            // minute numbers are stored plus one so that 0 means never busy
+            busyWorkerMinutes = new int[workers.size()];
+            busyTaskMinutes = new int[tasks.size()];
+        }
+
+        @Override
+        public void time(long time) {
+            minute = (int) time + 1;
+        }
+
+        @Override
+        public void assigned(int task, int worker, int stage) {
+            if (busyWorkerMinutes[worker] == minute) {
+                overbookedWorkers++;
+            }
+
+            if (busyTaskMinutes[task] == minute) {
+                overbookedTasks++;
+            }
+
+            busyWorkerMinutes[worker] = minute;
+            busyTaskMinutes[task] = minute;
+        }
+    }
+
+    private static List<TaskWorkerDelegationSimulator.Task> tasks(int count) {
+        List<TaskWorkerDelegationSimulator.Task> tasks = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            tasks.add(new TaskWorkerDelegationSimulator.Task("T" + i));
+        }
+
+        return tasks;
+    }
+
+    private static List<TaskWorkerDelegationSimulator.Worker> workers(int count) {
+        List<TaskWorkerDelegationSimulator.Worker> workers = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            workers.add(new TaskWorkerDelegationSimulator.Worker("W" + i));
+        }
+
+        return workers;
+    }
+
+    /**
+     * Run all tasks on given number of workers and return makespan in nanoseconds.
+     *
+     */
+    public static long measure(TaskWorkerDelegationSimulator.ExecutionMode mode, int workers, long stageMillis)
+            throws InterruptedException {
+        return measure(mode, tasks(TASKS), workers, stageMillis);
+    }
+
+    private static long measure(TaskWorkerDelegationSimulator.ExecutionMode mode,
+                                List<TaskWorkerDelegationSimulator.Task> tasks, int workers, long stageMillis)
+            throws InterruptedException {
+        return TaskWorkerDelegationSimulator.executeTasksInParallel(tasks, workers(workers), stageMillis, mode,
+                new TaskWorkerDelegationSimulator.NoOpEventSink());
+    }
+
+    /**
+     * Minutes the lock step schedule needs for all tasks on given number of workers.
+     *
+     */
+    private static int lockStepMinutes(int workers) {
+        return TaskWorkerDelegationSimulator.executeTasks(tasks(TASKS), workers(workers),
+                new TaskWorkerDelegationSimulator.NoOpEventSink());
+    }
+
+    /**
+     * Assign all stages of 1,000,000 tasks to 10,000 workers, with lock step schedule reporting to given sink or in
+     * parallel when sink is null, and print task stages per second and heap held by the finished tasks. System.out
+     * is discarded meanwhile, for {@link TaskWorkerDelegationSimulator.ConsoleEventSink}.
+     *
+     */
+    private static void measureScheduling(String label, TaskWorkerDelegationSimulator.EventSink events)
+            throws InterruptedException {
+        System.gc();
+        long baseline = usedHeap();
+
+        List<TaskWorkerDelegationSimulator.Task> tasks = tasks(SCHEDULING_TASKS);
+
+        long begin = System.nanoTime();
+        if (events == null) {
+            measure(TaskWorkerDelegationSimulator.ExecutionMode.VIRTUAL_THREADS, tasks, SCHEDULING_WORKERS, 0);
+        } else {
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                TaskWorkerDelegationSimulator.executeTasks(tasks, workers(SCHEDULING_WORKERS), events);
+            } finally {
+                System.setOut(out);
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        System.gc();
+        long heap = usedHeap() - baseline;
+
+        System.out.printf("%-24s %16.0f %16.1f%n", label, (double) SCHEDULING_TASKS * STAGES * 1e9 / elapsed,
+                heap / (1024.0 * 1024));
+
+        // keep tasks reachable until heap is measured
+        tasks.clear();
+    }
+
+    /**
+     * Simulate 1,000,000 tasks a few times and return best task stages per second. First run only warms up.
+     *
+     */
+    private static double measureSimulation(int stages, int workerCount) {
+        Random random = new Random(stages * 31L + workerCount);
+
+        long[] durations = new long[stages];
+        for (int i = 0; i < stages; i++) {
+            durations[i] = 1 + random.nextInt(10);
+        }
+
+        List<TaskWorkerDelegationSimulator.Worker> workers = new ArrayList<>(workerCount);
+        for (int i = 1; i <= workerCount; i++) {
+            workers.add(new TaskWorkerDelegationSimulator.Worker("W" + i, 0.5 + random.nextInt(4) * 0.5));
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run <= SIMULATION_RUNS; run++) {
+            List<TaskWorkerDelegationSimulator.Task> tasks = new ArrayList<>(SIMULATION_TASKS);
+            for (int i = 1; i <= SIMULATION_TASKS; i++) {
+                tasks.add(new TaskWorkerDelegationSimulator.Task("T" + i, stages));
+            }
+
+            long begin = System.nanoTime();
+            TaskWorkerDelegationSimulator.simulateTasks(tasks, workers, durations,
+                    new TaskWorkerDelegationSimulator.NoOpEventSink());
+            long elapsed = System.nanoTime() - begin;
+
+            if (run > 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+
+        return (double) SIMULATION_TASKS * stages * 1e9 / best;
+    }
+
+    /**
+     * Schedule one random input with lock step and with matching and print a row of minutes and utilization.
+     *
+     */
+    private static void compareSchedules(Random random) {
+        int taskCount = 1 + random.nextInt(SCHEDULE_MAX_TASKS);
+        int workerCount = SCHEDULE_MAX_STAGES + random.nextInt(SCHEDULE_MAX_WORKERS - SCHEDULE_MAX_STAGES);
+
+        int[] stages = new int[taskCount];
+        long totalStages = 0;
+        int maxStages = 0;
+        for (int i = 0; i < taskCount; i++) {
+            stages[i] = 1 + random.nextInt(SCHEDULE_MAX_STAGES);
+            totalStages += stages[i];
+            maxStages = Math.max(maxStages, stages[i]);
+        }
+
+        long lowerBound = Math.max(maxStages, (totalStages + workerCount - 1) / workerCount);
+
+        OverbookingSink lockStepEvents = new OverbookingSink();
+        int lockStep = TaskWorkerDelegationSimulator.executeTasks(tasks(stages), workers(workerCount), lockStepEvents);
+
+        OverbookingSink matchedEvents = new OverbookingSink();
+        int matched = TaskWorkerDelegationSimulator.executeTasksWithMatching(tasks(stages), workers(workerCount),
+                matchedEvents);
+
+        System.out.printf("%-10d %-10d %12d %12d %10.1f %10d/%-6d %12d %10.1f %10d/%-6d%n", taskCount, workerCount,
+                lowerBound, lockStep, 100.0 * totalStages / ((long) lockStep * workerCount),
+                lockStepEvents.overbookedWorkers, lockStepEvents.overbookedTasks, matched,
+                100.0 * totalStages / ((long) matched * workerCount), matchedEvents.overbookedWorkers,
+                matchedEvents.overbookedTasks);
+    }
+
+    private static List<TaskWorkerDelegationSimulator.Task> tasks(int[] stages) {
+        List<TaskWorkerDelegationSimulator.Task> tasks = new ArrayList<>(stages.length);
+        for (int i = 0; i < stages.length; i++) {
+            tasks.add(new TaskWorkerDelegationSimulator.Task("T" + (i + 1), stages[i]));
+        }
+
+        return tasks;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long stageMillis = args.length > 0 ? Long.parseLong(args[0]) : 1;
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors()
+                + ", tasks: " + TASKS + ", stage time: " + stageMillis + " ms");
+        System.out.printf("%-10s %-18s %14s %14s %14s%n", "Workers", "Mode", "Makespan ms", "Lock step ms",
+                "Lower bound ms");
+
+        // warm up dispatcher
+        measure(TaskWorkerDelegationSimulator.ExecutionMode.PLATFORM_THREADS, WORKER_COUNTS[0], 0);
+
+        for (int workers : WORKER_COUNTS) {
+            long lockStep = lockStepMinutes(workers) * stageMillis;
+            long lowerBound = ((long) TASKS * STAGES + workers - 1) / workers * stageMillis;
+
+            for (TaskWorkerDelegationSimulator.ExecutionMode mode
+                    : TaskWorkerDelegationSimulator.ExecutionMode.values()) {
+                long makespan = measure(mode, workers, stageMillis);
+
+                System.out.printf("%-10d %-18s %14.1f %14d %14d%n", workers, mode, makespan / 1e6, lockStep,
+                        lowerBound);
+            }
+        }
+
+        System.out.printf("%n%-10s %-18s %18s%n", "Workers", "Mode", "Task stages/s");
+        for (int workers : WORKER_COUNTS) {
+            for (TaskWorkerDelegationSimulator.ExecutionMode mode
+                    : TaskWorkerDelegationSimulator.ExecutionMode.values()) {
+                long makespan = measure(mode, workers, 0);
+
+                System.out.printf("%-10d %-18s %18.0f%n", workers, mode, (double) TASKS * STAGES * 1e9 / makespan);
+            }
+        }
+        System.out.println("(no stage time)");
+
+        System.out.printf("%n%-24s %16s %16s%n", "Schedule", "Task stages/s", "Task heap MB");
+        measureScheduling("Lock step, console", new TaskWorkerDelegationSimulator.ConsoleEventSink());
+        measureScheduling("Lock step, writer",
+                new TaskWorkerDelegationSimulator.WriterEventSink(Writer.nullWriter()));
+        measureScheduling("Lock step, binary", new TaskWorkerDelegationSimulator.BinaryEventSink(
+                Channels.newChannel(OutputStream.nullOutputStream())));
+        measureScheduling("Lock step, no-op", new TaskWorkerDelegationSimulator.NoOpEventSink());
+        measureScheduling("Parallel, virtual, no-op", null);
+        System.out.println("(" + SCHEDULING_TASKS + " tasks, " + SCHEDULING_WORKERS + " workers, no stage time)");
+
+        System.out.printf("%n%-10s %-10s %18s%n", "Stages", "Workers", "Task stages/s");
+        for (int stages : SIMULATION_STAGES) {
+            for (int workers : SIMULATION_WORKERS) {
+                System.out.printf("%-10d %-10d %18.0f%n", stages, workers, measureSimulation(stages, workers));
+            }
+        }
+        System.out.println("(" + SIMULATION_TASKS + " simulated tasks, best of " + SIMULATION_RUNS + " runs)");
+
+        System.out.printf("%n%-10s %-10s %12s %12s %10s %17s %12s %10s %17s%n", "Tasks", "Workers", "Lower bound",
+                "Lock step", "Util %", "Overbooked W/T", "Matching", "Util %", "Overbooked W/T");
+        Random random = new Random(42);
+        for (int input = 0; input < SCHEDULE_INPUTS; input++) {
+            compareSchedules(random);
+        }
+        System.out.println("(minutes, random tasks of 1 to " + SCHEDULE_MAX_STAGES
+                + " stages, overbooked stages of a worker or of a task busy that minute)");
+    }
+}
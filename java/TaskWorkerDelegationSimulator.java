@@ -1,4 +1,16 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Program to execute all given tasks with the list of given workers.
@@ -29,10 +41,40 @@ import java.util.*;
  *
  * Total time taken to complete all tasks in minutes: 3
  *
+ * {@link #executeTasksInParallel} really runs the stages instead: every worker is a thread (or virtual thread) which
+ * spends the stage duration on each stage it is given, and a dispatcher hands a task to a free eligible worker as soon
+ * as its previous stage completes, so tasks do not move in lock step minutes. It reports wall clock makespan.
+ *
+ * {@link #executeTasksWithMatching} keeps the 1 minute time steps but fills every minute with as many task stages as
+ * workers allow, favouring tasks with most stages left, and reaches the lower bound of
+ * max(stages, tasks x stages / workers) minutes on random inputs without ever giving a worker two stages in one
+ * minute, which the round robin lock step schedule does when it skips a worker.
+ *
+ * {@link #simulateTasks} plays the same dispatching out in simulated time as a discrete event simulation, for
+ * capacity planning: a task may have any number of stages, every stage has its own duration and every worker its own
+ * speed. It jumps from one stage completion to the next, so simulating millions of task stages takes about a second.
+ *
+ * Every mode reports assignments and completions to an {@link EventSink}. Without one they are printed as above;
+ * {@link WriterEventSink} and {@link BinaryEventSink} write them in batches without building a string per event, and
+ * {@link NoOpEventSink} drops them to measure scheduling alone.
+ *
  * @author Prabhash Rathore
  */
 public class TaskWorkerDelegationSimulator {
 
+    private static final int DEFAULT_STAGES = 3;
+
+    // stops a worker thread in parallel execution
+    private static final Task POISON_PILL = new Task("");
+
+    /**
+     * Kind of thread each worker runs on in parallel execution.
+     */
+    public enum ExecutionMode {
+        PLATFORM_THREADS,
+        VIRTUAL_THREADS
+    }
+
     /**
      * Class to encapsulate Task data.
      */
@@ -42,24 +84,598 @@ public class TaskWorkerDelegationSimulator {
         // last stage done for this task
         private int stageCompleted;
 
-        // efficient way to keep track of workers who has worked on this task
-        private Set<Worker> workersSet;
+        // ids of workers who has worked on this task, by stage, valid up to stageCompleted
+        private int[] workerIds;
+
+        // position in tasks list of current execution, how events refer to this task
+        private int id;
 
         public Task(String name) {
+            this(name, DEFAULT_STAGES);
+        }
+
+        public Task(String name, int stages) {
+            if (stages <= 0) {
+                throw new IllegalArgumentException("Invalid number of stages: " + stages);
+            }
+
             this.name = name;
             this.stageCompleted = -1;
-            this.workersSet = new HashSet<>();
+            this.workerIds = new int[stages];
+        }
+
+        private int stages() {
+            return workerIds.length;
+        }
+
+        private int stagesLeft() {
+            return workerIds.length - 1 - stageCompleted;
+        }
+
+        private boolean isDone() {
+            return stageCompleted == workerIds.length - 1;
+        }
+
+        /**
+         * Whether worker with given id has done a stage of this task. Looks at one slot per completed stage.
+         *
+         */
+        private boolean hasWorker(int workerId) {
+            for (int stage = 0; stage <= stageCompleted; stage++) {
+                if (workerIds[stage] == workerId) {
+                    return true;
+                }
+            }
+
+            return false;
         }
     }
 
     /**
-     * Class to encapsulate worker name.
+     * Class to encapsulate worker name and speed.
      */
     public static class Worker {
         private String name;
 
+        // stage duration is divided by speed, only used in simulation
+        private double speed;
+
         public Worker(String name) {
+            this(name, 1);
+        }
+
+        public Worker(String name, double speed) {
+            if (!(speed > 0)) {
+                throw new IllegalArgumentException("Invalid speed: " + speed);
+            }
+
             this.name = name;
+            this.speed = speed;
+        }
+    }
+
+    /**
+     * Receives assignments and completions of task stages. Tasks and workers are referred to by their position in the
+     * lists given to {@link #begin}, so that a sink can record an event without building a string.
+     */
+    public interface EventSink {
+
+        /**
+         * Called once before any event with tasks and workers of this execution.
+         */
+        void begin(List<Task> tasks, List<Worker> workers);
+
+        /**
+         * Following events happen at given time, in minutes or simulated time units.
+         */
+        void time(long time);
+
+        void assigned(int task, int worker, int stage);
+
+        void completed(int task, int worker, int stage);
+
+        /**
+         * Called once after last event, write out whatever is buffered.
+         */
+        void end();
+    }
+
+    /**
+     * Prints events to System.out in the format given in problem statement, one println per event.
+     */
+    public static class ConsoleEventSink implements EventSink {
+        private List<Task> tasks;
+        private List<Worker> workers;
+
+        @Override
+        public void begin(List<Task> tasks, List<Worker> workers) {
+            this.tasks = tasks;
+            this.workers = workers;
+        }
+
+        @Override
+        public void time(long time) {
+            System.out.println("\nTime: " + time);
+        }
+
+        @Override
+        public void assigned(int task, int worker, int stage) {
+            System.out.println("Assigned task " + tasks.get(task).name + " to worker " + workers.get(worker).name
+                    + " for stage " + stage);
+        }
+
+        @Override
+        public void completed(int task, int worker, int stage) {
+            System.out.println("Completed task " + tasks.get(task).name + " with worker " + workers.get(worker).name
+                    + " for stage " + stage);
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    /**
+     * Writes events in the same text format as {@link ConsoleEventSink} through a BufferedWriter. Names and fixed
+     * parts of a line are written as they are and numbers are converted into a reused char array, so no string is
+     * built per event and the underlying writer sees one write per full buffer.
+     *
+     * IOException of the underlying writer is thrown as UncheckedIOException.
+     */
+    public static class WriterEventSink implements EventSink {
+        private final BufferedWriter out;
+        private final char[] digits = new char[20];
+        private List<Task> tasks;
+        private List<Worker> workers;
+
+        public WriterEventSink(Writer out) {
+            this(out, 1 << 16);
+        }
+
+        public WriterEventSink(Writer out, int bufferChars) {
+            this.out = new BufferedWriter(out, bufferChars);
+        }
+
+        @Override
+        public void begin(List<Task> tasks, List<Worker> workers) {
+            this.tasks = tasks;
+            this.workers = workers;
+        }
+
+        @Override
+        public void time(long time) {
+            try {
+                out.write("\nTime: ");
+                writeNumber(time);
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void assigned(int task, int worker, int stage) {
+            try {
+                out.write("Assigned task ");
+                out.write(tasks.get(task).name);
+                out.write(" to worker ");
+                out.write(workers.get(worker).name);
+                out.write(" for stage ");
+                writeNumber(stage);
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void completed(int task, int worker, int stage) {
+            try {
+                out.write("Completed task ");
+                out.write(tasks.get(task).name);
+                out.write(" with worker ");
+                out.write(workers.get(worker).name);
+                out.write(" for stage ");
+                writeNumber(stage);
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void end() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeNumber(long value) throws IOException {
+            if (value < 0) {
+                out.write('-');
+                value = -value;
+            }
+
+            int start = digits.length;
+            do {
+                digits[--start] = (char) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+
+            out.write(digits, start, digits.length - start);
+        }
+    }
+
+    /**
+     * Writes events as fixed size binary records into a preallocated ByteBuffer, handed to the channel whenever it is
+     * full. Every record takes {@link #RECORD_BYTES} bytes in native byte order: an int type followed by a long time
+     * for {@link #TIME}, or by int task, int worker and int stage for {@link #ASSIGNED} and {@link #COMPLETED}. Tasks
+     * and workers are positions in the lists of the execution, names are not written.
+     *
+     * IOException of the channel is thrown as UncheckedIOException.
+     */
+    public static class BinaryEventSink implements EventSink {
+        public static final int RECORD_BYTES = 16;
+
+        public static final int TIME = 0;
+        public static final int ASSIGNED = 1;
+        public static final int COMPLETED = 2;
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        public BinaryEventSink(WritableByteChannel channel) {
+            this(channel, 1 << 16);
+        }
+
+        public BinaryEventSink(WritableByteChannel channel, int bufferBytes) {
+            if (bufferBytes < RECORD_BYTES) {
+                throw new IllegalArgumentException("Buffer cannot hold a record: " + bufferBytes);
+            }
+
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferBytes - bufferBytes % RECORD_BYTES)
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public void begin(List<Task> tasks, List<Worker> workers) {
+        }
+
+        @Override
+        public void time(long time) {
+            reserve();
+            buffer.putInt(TIME).putInt(0).putLong(time);
+        }
+
+        @Override
+        public void assigned(int task, int worker, int stage) {
+            reserve();
+            buffer.putInt(ASSIGNED).putInt(task).putInt(worker).putInt(stage);
+        }
+
+        @Override
+        public void completed(int task, int worker, int stage) {
+            reserve();
+            buffer.putInt(COMPLETED).putInt(task).putInt(worker).putInt(stage);
+        }
+
+        @Override
+        public void end() {
+            drain();
+        }
+
+        private void reserve() {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Drops every event, to measure scheduling without any output.
+     */
+    public static class NoOpEventSink implements EventSink {
+        @Override
+        public void begin(List<Task> tasks, List<Worker> workers) {
+        }
+
+        @Override
+        public void time(long time) {
+        }
+
+        @Override
+        public void assigned(int task, int worker, int stage) {
+        }
+
+        @Override
+        public void completed(int task, int worker, int stage) {
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    /**
+     * Ready tasks and idle workers shared by parallel execution and simulation.
+     *
+     * Tasks ready for their next stage wait in arrival order and idle workers in a stack. Each ready task gets the
+     * first idle worker which has not worked on it yet, so a task with N stages makes at most N idle workers be looked
+     * at per assignment.
+     */
+    private static final class StageDispatcher {
+        private final ArrayDeque<Task> ready = new ArrayDeque<>();
+        private final int[] idleWorkers;
+        private int idleCount;
+        private int remaining;
+
+        StageDispatcher(List<Task> tasks, int workerCount) {
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                task.id = i;
+
+                if (task.stages() > workerCount) {
+                    throw new IllegalArgumentException("At least " + task.stages() + " workers are needed for task "
+                            + task.name + ": " + workerCount);
+                }
+
+                if (!task.isDone()) {
+                    ready.add(task);
+                }
+            }
+
+            this.remaining = ready.size();
+            this.idleWorkers = new int[workerCount];
+            for (int i = workerCount - 1; i >= 0; i--) {
+                idleWorkers[idleCount++] = i;
+            }
+        }
+
+        /**
+         * Take next ready task an idle worker can do and record that worker for the task's next stage. Returns null
+         * when no idle worker is left or none of them may work on any ready task.
+         *
+         */
+        Task assignNext() {
+            // a task whose only idle workers already worked on it goes back to end of queue
+            for (int scanned = ready.size(); scanned > 0 && idleCount > 0; scanned--) {
+                Task task = ready.poll();
+
+                int slot = idleCount - 1;
+                while (slot >= 0 && task.hasWorker(idleWorkers[slot])) {
+                    slot--;
+                }
+
+                if (slot < 0) {
+                    ready.add(task);
+                    continue;
+                }
+
+                task.workerIds[task.stageCompleted + 1] = idleWorkers[slot];
+                idleWorkers[slot] = idleWorkers[--idleCount];
+
+                return task;
+            }
+
+            return null;
+        }
+
+        /**
+         * Mark running stage of task as completed, give its worker back and queue task for its next stage. Returns id
+         * of the worker.
+         *
+         */
+        int complete(Task task) {
+            task.stageCompleted++;
+            int workerId = task.workerIds[task.stageCompleted];
+            idleWorkers[idleCount++] = workerId;
+
+            if (task.isDone()) {
+                remaining--;
+            } else {
+                ready.add(task);
+            }
+
+            return workerId;
+        }
+
+        boolean hasRemaining() {
+            return remaining > 0;
+        }
+    }
+
+    /**
+     * Maximum bipartite matching of tasks to workers within one minute of {@link #executeTasksWithMatching}.
+     *
+     * Tasks are first matched greedily to a free worker which has not worked on them, and since a task excludes fewer
+     * workers than it has stages this looks at only a few free workers. Only when every free worker is excluded does
+     * it search for an augmenting path, moving tasks already matched this minute to other workers. Per minute state
+     * is stamped with a round number instead of being cleared.
+     */
+    private static final class WorkerMatching {
+        // task holding every worker, valid when ownerRounds matches round
+        private final Task[] owners;
+        private final int[] ownerRounds;
+
+        // workers visited by current augmenting path search
+        private final int[] visitMarks;
+
+        private final int[] freeWorkers;
+        private final int[] freePositions;
+        private int freeCount;
+
+        private int round;
+        private int visit;
+
+        WorkerMatching(int workerCount) {
+            this.owners = new Task[workerCount];
+            this.ownerRounds = new int[workerCount];
+            this.visitMarks = new int[workerCount];
+            this.freeWorkers = new int[workerCount];
+            this.freePositions = new int[workerCount];
+        }
+
+        /**
+         * Start a new minute with every worker free, first fit starting at given worker and going round robin.
+         *
+         */
+        void reset(int firstWorker) {
+            round++;
+            freeCount = 0;
+            for (int i = owners.length - 1; i >= 0; i--) {
+                int worker = (firstWorker + i) % owners.length;
+                freePositions[worker] = freeCount;
+                freeWorkers[freeCount++] = worker;
+            }
+        }
+
+        /**
+         * Match task to a worker for its next stage, moving other tasks of this minute if needed. Returns false when
+         * no matching gives the task a worker.
+         *
+         */
+        boolean match(Task task) {
+            for (int slot = freeCount - 1; slot >= 0; slot--) {
+                if (!task.hasWorker(freeWorkers[slot])) {
+                    take(freeWorkers[slot], task);
+                    return true;
+                }
+            }
+
+            if (freeCount == 0) {
+                return false;
+            }
+
+            visit++;
+            return augment(task);
+        }
+
+        boolean isMatched(Task task) {
+            int worker = task.workerIds[task.stageCompleted + 1];
+            return ownerRounds[worker] == round && owners[worker] == task;
+        }
+
+        private boolean augment(Task task) {
+            for (int slot = freeCount - 1; slot >= 0; slot--) {
+                if (!task.hasWorker(freeWorkers[slot])) {
+                    take(freeWorkers[slot], task);
+                    return true;
+                }
+            }
+
+            for (int worker = 0; worker < owners.length; worker++) {
+                if (ownerRounds[worker] != round || visitMarks[worker] == visit || task.hasWorker(worker)) {
+                    continue;
+                }
+
+                visitMarks[worker] = visit;
+                if (augment(owners[worker])) {
+                    owners[worker] = task;
+                    task.workerIds[task.stageCompleted + 1] = worker;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void take(int worker, Task task) {
+            int position = freePositions[worker];
+            int last = freeWorkers[--freeCount];
+            freeWorkers[position] = last;
+            freePositions[last] = position;
+
+            owners[worker] = task;
+            ownerRounds[worker] = round;
+            task.workerIds[task.stageCompleted + 1] = worker;
+        }
+    }
+
+    /**
+     * Binary min heap of stage completion events by time, kept in parallel arrays so that no event is allocated.
+     */
+    private static final class CompletionEvents {
+        private final long[] times;
+        private final Task[] tasks;
+        private int size;
+
+        CompletionEvents(int capacity) {
+            this.times = new long[capacity];
+            this.tasks = new Task[capacity];
+        }
+
+        void add(long time, Task task) {
+            int index = size++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (times[parent] <= time) {
+                    break;
+                }
+
+                times[index] = times[parent];
+                tasks[index] = tasks[parent];
+                index = parent;
+            }
+
+            times[index] = time;
+            tasks[index] = task;
+        }
+
+        long peekTime() {
+            return times[0];
+        }
+
+        Task poll() {
+            Task first = tasks[0];
+
+            int last = --size;
+            long time = times[last];
+            Task task = tasks[last];
+            tasks[last] = null;
+
+            if (last > 0) {
+                int index = 0;
+                int half = last >>> 1;
+                while (index < half) {
+                    int child = 2 * index + 1;
+                    if (child + 1 < last && times[child + 1] < times[child]) {
+                        child++;
+                    }
+
+                    if (time <= times[child]) {
+                        break;
+                    }
+
+                    times[index] = times[child];
+                    tasks[index] = tasks[child];
+                    index = child;
+                }
+
+                times[index] = time;
+                tasks[index] = task;
+            }
+
+            return first;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
         }
     }
 
@@ -68,74 +684,390 @@ public class TaskWorkerDelegationSimulator {
      * statement and prints the task execution order.
      *
      * Task is stored in queue and after each execution of task stage, it's pushed back to same queue. When for a task,
-     * all it's 3 stages are completed, task is ejected out of the queue.
+     * all it's stages are completed, task is ejected out of the queue.
+     *
+     * A worker's id is its position in workers list. Workers are handed out round robin and a task remembers ids of
+     * its workers in one slot per stage, so finding next valid worker skips fewer workers than the task has stages
+     * and assignment is O(1) no matter how many workers there are.
      *
      * @param tasks
      * @param workers
+     * @return total time taken in minutes
      */
-    public static void executeTasks(List<Task> tasks, List<Worker> workers) {
+    public static int executeTasks(List<Task> tasks, List<Worker> workers) {
+        int timeInMinute = executeTasks(tasks, workers, new ConsoleEventSink());
 
-        Queue<Task> queue = new LinkedList<>();
-        for (Task task : tasks) {
+        System.out.println("\n\nTotal time taken to complete all tasks in minutes: " + timeInMinute);
+
+        return timeInMinute;
+    }
+
+    /**
+     * Same as {@link #executeTasks(List, List)}, reporting task execution order to given sink.
+     *
+     * @return total time taken in minutes
+     */
+    public static int executeTasks(List<Task> tasks, List<Worker> workers, EventSink events) {
+
+        Queue<Task> queue = new ArrayDeque<>(tasks.size());
+        int activeTasks = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            task.id = i;
             queue.add(task);
+
+            if (!task.isDone()) {
+                activeTasks++;
+            }
         }
 
+        events.begin(tasks, workers);
+
         int workerCount = workers.size();
 
         int timeInMinute = 0;
 
-        int windowSize = Math.min(tasks.size(), workers.size());
+        // a minute gives every task at most one stage, so it is never wider than tasks still having stages left
+        int windowSize = Math.min(activeTasks, workerCount);
         int curCount = 0;
 
         int workerIndex = 0;
 
-        List<String> completedStages = new ArrayList<>();
+        // completions are reported at end of minute, after its assignments
+        int[] completedTasks = new int[windowSize];
+        int[] completedWorkers = new int[windowSize];
+        int[] completedStages = new int[windowSize];
+        int completedCount = 0;
 
         while (!queue.isEmpty()) {
 
-            curCount++;
-
             Task task = queue.remove();
 
-            // Task with stage == 2 is marked as done
-            if (task.stageCompleted == 2) {
+            // Task with its last stage completed is marked as done, it takes no place in the minute
+            if (task.isDone()) {
                 continue;
             }
 
+            curCount++;
+
             if (curCount == 1) {
-                System.out.println("\nTime: " + timeInMinute);
+                events.time(timeInMinute);
             }
 
             int curStage = task.stageCompleted + 1;
 
             workerIndex = getNextValidWorker(task, workers, workerIndex);
-            Worker worker = workers.get(workerIndex);
 
-            System.out.println("Assigned task " + task.name + " to worker " + worker.name + " for stage " + curStage);
+            events.assigned(task.id, workerIndex, curStage);
 
             task.stageCompleted = curStage;
-            task.workersSet.add(worker);
+            task.workerIds[curStage] = workerIndex;
+
+            if (task.isDone()) {
+                activeTasks--;
+            }
 
             queue.add(task); // add it back to queue for next stage processing
 
-            completedStages.add(String.format("Completed task %s with worker %s for stage %d", task.name, worker.name, curStage));
+            completedTasks[completedCount] = task.id;
+            completedWorkers[completedCount] = workerIndex;
+            completedStages[completedCount] = curStage;
+            completedCount++;
 
             workerIndex = (workerIndex + 1) % workerCount;
 
             if (curCount == windowSize) {
-                // print completed messages
-                for (String s : completedStages) {
-                    System.out.println(s);
+                // report completed stages
+                for (int i = 0; i < completedCount; i++) {
+                    events.completed(completedTasks[i], completedWorkers[i], completedStages[i]);
                 }
 
-                completedStages.clear();
+                completedCount = 0;
                 curCount = 0;
                 timeInMinute++;
+
+                // every active task is in queue once ahead of tasks re-added this minute, so next window fills up
+                windowSize = Math.min(activeTasks, workerCount);
             }
         }
 
+        events.end();
+
+        return timeInMinute;
+    }
+
+    /**
+     * Same problem as {@link #executeTasks}, but every minute is scheduled to keep as many workers busy as possible,
+     * and prints the task execution order in the same format.
+     *
+     * Each minute picks up to one task per worker, tasks with most stages left first: with unit stages that never
+     * lets a long task become the critical path while short ones run. Picked tasks are then matched to workers with
+     * {@link WorkerMatching}, which gives every picked task a worker whenever the distinct worker constraint allows.
+     * A task left without worker keeps its place for next minute.
+     *
+     * @return total time taken in minutes
+     */
+    public static int executeTasksWithMatching(List<Task> tasks, List<Worker> workers) {
+        int timeInMinute = executeTasksWithMatching(tasks, workers, new ConsoleEventSink());
+
         System.out.println("\n\nTotal time taken to complete all tasks in minutes: " + timeInMinute);
 
+        return timeInMinute;
+    }
+
+    /**
+     * Same as {@link #executeTasksWithMatching(List, List)}, reporting task execution order to given sink.
+     *
+     * @return total time taken in minutes
+     */
+    public static int executeTasksWithMatching(List<Task> tasks, List<Worker> workers, EventSink events) {
+        int workerCount = workers.size();
+
+        int maxStages = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            task.id = i;
+
+            if (task.stages() > workerCount) {
+                throw new IllegalArgumentException("At least " + task.stages() + " workers are needed for task "
+                        + task.name + ": " + workerCount);
+            }
+
+            maxStages = Math.max(maxStages, task.stages());
+        }
+
+        // tasks waiting by number of stages left
+        List<ArrayDeque<Task>> waiting = new ArrayList<>(maxStages + 1);
+        for (int left = 0; left <= maxStages; left++) {
+            waiting.add(new ArrayDeque<>());
+        }
+
+        int pending = 0;
+        for (Task task : tasks) {
+            if (!task.isDone()) {
+                waiting.get(task.stagesLeft()).add(task);
+                pending++;
+            }
+        }
+
+        WorkerMatching matching = new WorkerMatching(workerCount);
+        List<Task> picked = new ArrayList<>(Math.min(workerCount, pending));
+
+        events.begin(tasks, workers);
+
+        int timeInMinute = 0;
+        int firstWorker = 0;
+
+        while (pending > 0) {
+            picked.clear();
+            for (int left = maxStages; left > 0 && picked.size() < workerCount; left--) {
+                ArrayDeque<Task> queue = waiting.get(left);
+                while (!queue.isEmpty() && picked.size() < workerCount) {
+                    picked.add(queue.poll());
+                }
+            }
+
+            // like lock step, start where last minute stopped so that every task sees workers in a different order
+            matching.reset(firstWorker);
+            for (Task task : picked) {
+                matching.match(task);
+            }
+            firstWorker = (firstWorker + picked.size()) % workerCount;
+
+            events.time(timeInMinute);
+
+            for (Task task : picked) {
+                if (matching.isMatched(task)) {
+                    int stage = task.stageCompleted + 1;
+                    events.assigned(task.id, task.workerIds[stage], stage);
+                }
+            }
+
+            // unmatched tasks go back to front of their queue in picking order
+            for (int i = picked.size() - 1; i >= 0; i--) {
+                Task task = picked.get(i);
+                if (!matching.isMatched(task)) {
+                    waiting.get(task.stagesLeft()).addFirst(task);
+                }
+            }
+
+            for (Task task : picked) {
+                if (!matching.isMatched(task)) {
+                    continue;
+                }
+
+                task.stageCompleted++;
+                events.completed(task.id, task.workerIds[task.stageCompleted], task.stageCompleted);
+
+                if (task.isDone()) {
+                    pending--;
+                } else {
+                    waiting.get(task.stagesLeft()).add(task);
+                }
+            }
+
+            timeInMinute++;
+        }
+
+        events.end();
+
+        return timeInMinute;
+    }
+
+    /**
+     * Execute all stages of all tasks for real, one thread per worker, and return wall clock makespan in nanoseconds.
+     *
+     * Calling thread is the dispatcher and hands ready tasks to idle workers through a {@link StageDispatcher}.
+     * Workers report finished stages back on a single completion queue, and a finished task stage makes both its task
+     * and its worker available again right away.
+     *
+     * Assignments and completions are printed in the order dispatcher sees them.
+     *
+     * @param stageMillis time a worker spends on one stage
+     */
+    public static long executeTasksInParallel(List<Task> tasks, List<Worker> workers, long stageMillis,
+                                              ExecutionMode executionMode) throws InterruptedException {
+        return executeTasksInParallel(tasks, workers, stageMillis, executionMode, new ConsoleEventSink());
+    }
+
+    /**
+     * Same as {@link #executeTasksInParallel(List, List, long, ExecutionMode)}, reporting assignments and completions
+     * to given sink. Only the dispatcher thread calls the sink, and there are no time events.
+     *
+     */
+    public static long executeTasksInParallel(List<Task> tasks, List<Worker> workers, long stageMillis,
+                                              ExecutionMode executionMode, EventSink events)
+            throws InterruptedException {
+        int workerCount = workers.size();
+        StageDispatcher dispatcher = new StageDispatcher(tasks, workerCount);
+        events.begin(tasks, workers);
+
+        BlockingQueue<Task> completions = new LinkedBlockingQueue<>();
+        List<BlockingQueue<Task>> inboxes = new ArrayList<>(workerCount);
+
+        ThreadFactory threadFactory = executionMode == ExecutionMode.VIRTUAL_THREADS
+                ? Thread.ofVirtual().factory()
+                : Thread.ofPlatform().factory();
+
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(threadFactory)) {
+            for (int i = 0; i < workerCount; i++) {
+                BlockingQueue<Task> inbox = new LinkedBlockingQueue<>();
+                inboxes.add(inbox);
+
+                executor.submit(() -> {
+                    while (true) {
+                        Task task = inbox.take();
+                        if (task == POISON_PILL) {
+                            return null;
+                        }
+
+                        if (stageMillis > 0) {
+                            Thread.sleep(stageMillis);
+                        }
+
+                        completions.add(task);
+                    }
+                });
+            }
+
+            long begin = System.nanoTime();
+
+            try {
+                while (dispatcher.hasRemaining()) {
+                    for (Task task = dispatcher.assignNext(); task != null; task = dispatcher.assignNext()) {
+                        int stage = task.stageCompleted + 1;
+                        int workerId = task.workerIds[stage];
+
+                        events.assigned(task.id, workerId, stage);
+                        inboxes.get(workerId).add(task);
+                    }
+
+                    // wait for one stage to finish, then take all others finished meanwhile
+                    Task task = completions.take();
+                    do {
+                        int workerId = dispatcher.complete(task);
+
+                        events.completed(task.id, workerId, task.stageCompleted);
+
+                        task = completions.poll();
+                    } while (task != null);
+                }
+
+                long makespan = System.nanoTime() - begin;
+                events.end();
+
+                return makespan;
+            } finally {
+                for (BlockingQueue<Task> inbox : inboxes) {
+                    inbox.add(POISON_PILL);
+                }
+            }
+        }
+    }
+
+    /**
+     * Simulate execution of all tasks and return makespan, in the time unit of stage durations.
+     *
+     * Discrete event simulation: ready tasks are given to idle workers through a {@link StageDispatcher}, every
+     * assignment schedules a completion event at current time plus stage duration divided by worker speed (rounded
+     * up), and simulated time then jumps to the earliest pending completion. All completions due at that time are
+     * processed before tasks are assigned again. Nothing is allocated per stage.
+     *
+     * @param stageDurations duration of every stage, one entry per stage of the tasks
+     * @param events receives assignments and completions under the time they happen at
+     */
+    public static long simulateTasks(List<Task> tasks, List<Worker> workers, long[] stageDurations,
+                                     EventSink events) {
+        for (long duration : stageDurations) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("Invalid stage duration: " + duration);
+            }
+        }
+
+        for (Task task : tasks) {
+            if (task.stages() != stageDurations.length) {
+                throw new IllegalArgumentException("Task " + task.name + " has " + task.stages() + " stages, "
+                        + stageDurations.length + " durations given");
+            }
+        }
+
+        int workerCount = workers.size();
+        StageDispatcher dispatcher = new StageDispatcher(tasks, workerCount);
+        CompletionEvents completions = new CompletionEvents(workerCount);
+
+        double[] speeds = new double[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            speeds[i] = workers.get(i).speed;
+        }
+
+        events.begin(tasks, workers);
+
+        long time = 0;
+        events.time(time);
+
+        while (dispatcher.hasRemaining()) {
+            for (Task task = dispatcher.assignNext(); task != null; task = dispatcher.assignNext()) {
+                int stage = task.stageCompleted + 1;
+                int workerId = task.workerIds[stage];
+
+                completions.add(time + (long) Math.ceil(stageDurations[stage] / speeds[workerId]), task);
+                events.assigned(task.id, workerId, stage);
+            }
+
+            time = completions.peekTime();
+            events.time(time);
+
+            do {
+                Task task = completions.poll();
+                int workerId = dispatcher.complete(task);
+
+                events.completed(task.id, workerId, task.stageCompleted);
+            } while (!completions.isEmpty() && completions.peekTime() == time);
+        }
+
+        events.end();
+
+        return time;
     }
 
     private static int getNextValidWorker(Task task, List<Worker> workers, int index) {
@@ -144,9 +1076,7 @@ public class TaskWorkerDelegationSimulator {
         int count = 0;
 
         while (count < size) {
-            Worker worker = workers.get(index);
-
-            if (!task.workersSet.contains(worker)) {
+            if (!task.hasWorker(index)) {
                 return index;
             }
 
@@ -164,5 +1094,28 @@ public class TaskWorkerDelegationSimulator {
         List<Worker> workers = List.of(new Worker("W1"), new Worker("W2"), new Worker("W3"), new Worker("W3"), new Worker("W4"));
 
         executeTasks(tasks, workers);
+
+        System.out.println("\nMatching");
+
+        executeTasksWithMatching(List.of(new Task("T1"), new Task("T2"), new Task("T3")), workers);
+
+        System.out.println("\nParallel execution, 100 ms per stage\n");
+
+        List<Task> parallelTasks = List.of(new Task("T1"), new Task("T2"), new Task("T3"));
+        try {
+            long makespan = executeTasksInParallel(parallelTasks, workers, 100, ExecutionMode.VIRTUAL_THREADS);
+            System.out.println("\nTotal time taken to complete all tasks in milliseconds: " + makespan / 1_000_000);
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        }
+
+        System.out.println("\nSimulation, 5 stages taking 1, 2, 1, 3 and 1 minutes, W2 twice as fast, W5 half as fast");
+
+        List<Task> pipelineTasks = List.of(new Task("T1", 5), new Task("T2", 5), new Task("T3", 5));
+        List<Worker> pipelineWorkers = List.of(new Worker("W1"), new Worker("W2", 2), new Worker("W3"),
+                new Worker("W4"), new Worker("W5", 0.5), new Worker("W6"));
+
+        long time = simulateTasks(pipelineTasks, pipelineWorkers, new long[]{1, 2, 1, 3, 1}, new ConsoleEventSink());
+        System.out.println("\nTotal simulated time taken to complete all tasks: " + time);
     }
 }
\ No newline at end of file
@@ -0,0 +1,268 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size Bounded Queue of ints with separate locks for producers and consumers.
+ *
+ * Producers only take the put lock and wait on its notFull condition, consumers only take the take lock and wait on
+ * its notEmpty condition, so a producer and a consumer never block each other. Element count is an atomic shared by
+ * both sides. Every wakeup is a single signal instead of {@link BlockingQueue}'s notifyAll: a thread which finds
+ * more room (or elements) left after its own operation signals the next waiter of its own kind, which cascades
+ * wakeups one by one, and the other side is signalled only on the transition from full (or empty).
+ *
+ * Blocking operations respond to interruption by throwing InterruptedException, and timed variants give up after
+ * the timeout, so threads using the queue can be shut down cleanly.
+ *
+ * @author Prabhash Rathore
+ */
+public class TwoLockBlockingQueue {
+
+    /** Returned by timed poll when no element became available in time. */
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    private final int[] elements;
+    private final int capacity;
+    private final AtomicInteger count;
+
+    // guarded by putLock
+    private int putIndex;
+    // guarded by takeLock
+    private int takeIndex;
+
+    private final ReentrantLock putLock;
+    private final Condition notFull;
+
+    private final ReentrantLock takeLock;
+    private final Condition notEmpty;
+
+    public TwoLockBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.elements = new int[capacity];
+        this.count = new AtomicInteger();
+
+        this.putLock = new ReentrantLock();
+        this.notFull = putLock.newCondition();
+
+        this.takeLock = new ReentrantLock();
+        this.notEmpty = takeLock.newCondition();
+    }
+
+    /**
+     * Add new value to queue. Block if queue is full.
+     *
+     */
+    public void offer(int value) throws InterruptedException {
+        int previousCount;
+
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == capacity) {
+                notFull.await();
+            }
+
+            previousCount = enqueue(value);
+        } finally {
+            putLock.unlock();
+        }
+
+        if (previousCount == 0) {
+            signalNotEmpty();
+        }
+    }
+
+    /**
+     * Add new value to queue, waiting up to timeout for room. Returns false if queue stayed full.
+     *
+     */
+    public boolean offer(int value, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        int previousCount;
+
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+
+                nanos = notFull.awaitNanos(nanos);
+            }
+
+            previousCount = enqueue(value);
+        } finally {
+            putLock.unlock();
+        }
+
+        if (previousCount == 0) {
+            signalNotEmpty();
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the oldest element from queue. Block if queue is empty.
+     *
+     */
+    public int poll() throws InterruptedException {
+        int value;
+        int previousCount;
+
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                notEmpty.await();
+            }
+
+            value = elements[takeIndex];
+            previousCount = dequeue();
+        } finally {
+            takeLock.unlock();
+        }
+
+        if (previousCount == capacity) {
+            signalNotFull();
+        }
+
+        return value;
+    }
+
+    /**
+     * Remove the oldest element, waiting up to timeout for one. Returns {@link #EMPTY} if queue stayed empty.
+     *
+     */
+    public long poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        int value;
+        int previousCount;
+
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0) {
+                    return EMPTY;
+                }
+
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            value = elements[takeIndex];
+            previousCount = dequeue();
+        } finally {
+            takeLock.unlock();
+        }
+
+        if (previousCount == capacity) {
+            signalNotFull();
+        }
+
+        return value;
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * Store value at put index and return count before this insert. Must hold put lock.
+     *
+     */
+    private int enqueue(int value) {
+        elements[putIndex] = value;
+        putIndex = putIndex + 1 == capacity ? 0 : putIndex + 1;
+
+        // count update publishes element to consumers
+        int previousCount = count.getAndIncrement();
+
+        // more room left, let next waiting producer in
+        if (previousCount + 1 < capacity) {
+            notFull.signal();
+        }
+
+        return previousCount;
+    }
+
+    /**
+     * Advance take index and return count before this removal. Must hold take lock.
+     *
+     */
+    private int dequeue() {
+        takeIndex = takeIndex + 1 == capacity ? 0 : takeIndex + 1;
+
+        int previousCount = count.getAndDecrement();
+
+        // more elements left, let next waiting consumer in
+        if (previousCount > 1) {
+            notEmpty.signal();
+        }
+
+        return previousCount;
+    }
+
+    private void signalNotEmpty() {
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    private void signalNotFull() {
+        putLock.lock();
+        try {
+            notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Two Lock Blocking Queue");
+
+        TwoLockBlockingQueue queue = new TwoLockBlockingQueue(3);
+
+        // Thread t1 add elements every second to queue
+        Thread t1 = new Thread(() -> {
+            try {
+                for (int count = 10; count > 0; count--) {
+                    queue.offer(count);
+                    Thread.sleep(1000);
+                }
+            } catch (InterruptedException ie) {
+                System.out.println(Thread.currentThread().getName() + " interrupted, stopping");
+            }
+        }, "T1");
+
+        // Consumer gives up waiting after 2 seconds and is shut down by interrupt at the end
+        Thread t2 = new Thread(() -> {
+            try {
+                while (true) {
+                    long value = queue.poll(2, TimeUnit.SECONDS);
+                    if (value == EMPTY) {
+                        System.out.println("No value within 2 seconds");
+                    } else {
+                        System.out.println("Value removed: " + value);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                System.out.println(Thread.currentThread().getName() + " interrupted, stopping");
+            }
+        }, "T2");
+
+        t1.start();
+        t2.start();
+
+        t1.join();
+        Thread.sleep(3000);
+
+        t2.interrupt();
+        t2.join();
+    }
+}
@@ -0,0 +1,325 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * W-TinyLFU eviction policy for {@link LRUCache}.
+ *
+ * Cache is split into a small admission window (1% of capacity) and a main region (99%). Main region is a segmented
+ * LRU: new arrivals land in probation and entries hit again while in probation are promoted to protected (80% of
+ * main). Every new key enters the window first. When the window overflows its least recently used key moves to
+ * probation as a candidate, and on cache overflow the candidate has to beat the least recently used probation entry
+ * on estimated frequency, otherwise the candidate itself is evicted. A sequential scan therefore only churns the
+ * window and probation while the frequently used keys in protected survive.
+ *
+ * Frequencies are estimated with a Count-Min Sketch of 4 bit counters which halves all counters after a sample of
+ * 10 x capacity increments, so that keys which were popular long ago age out.
+ *
+ * @author Prabhash Rathore
+ */
+public class WTinyLfuPolicy implements LRUCache.EvictionPolicy {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    public static class Node {
+        private int key;
+        private int region;
+
+        private Node prev;
+        private Node next;
+
+        public Node(int key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Doubly linked list of keys of one region ordered from least to most recently used.
+     */
+    private static class Region {
+        private final Node head;
+        private final Node tail;
+        private final int id;
+        private int size;
+
+        private Region(int id) {
+            this.id = id;
+
+            // sentinel nodes
+            this.head = new Node(-1);
+            this.tail = new Node(-1);
+
+            this.head.next = this.tail;
+            this.tail.prev = this.head;
+        }
+
+        private void addLast(Node node) {
+            Node last = tail.prev;
+
+            last.next = node;
+            node.prev = last;
+
+            node.next = tail;
+            tail.prev = node;
+
+            node.region = id;
+            size++;
+        }
+
+        private void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+
+            node.prev = null;
+            node.next = null;
+
+            size--;
+        }
+
+        private Node first() {
+            return size == 0 ? null : head.next;
+        }
+
+        private Node last() {
+            return size == 0 ? null : tail.prev;
+        }
+    }
+
+    /**
+     * Count-Min Sketch with 4 hash functions and 4 bit counters, sixteen counters packed in a long.
+     */
+    public static class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        public FrequencySketch(int maximumSize) {
+            int tableSize = Integer.highestOneBit(Math.max(2, maximumSize) - 1) << 1;
+            this.table = new long[tableSize];
+            this.tableMask = tableSize - 1;
+            this.sampleSize = 10 * Math.max(1, maximumSize);
+        }
+
+        public int frequency(int key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+
+            return frequency;
+        }
+
+        public void increment(int key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+
+                if (((table[index] >>> offset) & 0xfL) != 0xfL) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions == sampleSize) {
+                reset();
+            }
+        }
+
+        /**
+         * Age all counters by halving them.
+         */
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & tableMask;
+        }
+
+        private static int spread(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private final Map<Integer, Node> nodes;
+    private final FrequencySketch sketch;
+
+    private final Region window;
+    private final Region probation;
+    private final Region protectedRegion;
+
+    private final int maxWindow;
+    private final int maxProtected;
+
+    // entry most recently moved from window to probation, null once it was admitted, promoted or removed
+    private Node candidate;
+
+    public WTinyLfuPolicy(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Invalid maximum size: " + maximumSize);
+        }
+
+        this.nodes = new HashMap<>();
+        this.sketch = new FrequencySketch(maximumSize);
+
+        this.window = new Region(WINDOW);
+        this.probation = new Region(PROBATION);
+        this.protectedRegion = new Region(PROTECTED);
+
+        this.maxWindow = Math.max(1, maximumSize / 100);
+        this.maxProtected = (int) ((maximumSize - maxWindow) * 0.8);
+    }
+
+    @Override
+    public void recordAccess(int key) {
+        sketch.increment(key);
+
+        Node node = nodes.get(key);
+        if (node == null) {
+            return;
+        }
+
+        switch (node.region) {
+            case WINDOW:
+                window.remove(node);
+                window.addLast(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                protectedRegion.addLast(node);
+                if (node == candidate) {
+                    candidate = null;
+                }
+
+                // demote least recently used protected entry back to probation
+                if (protectedRegion.size > maxProtected) {
+                    Node demoted = protectedRegion.first();
+                    protectedRegion.remove(demoted);
+                    probation.addLast(demoted);
+                }
+                break;
+            default:
+                protectedRegion.remove(node);
+                protectedRegion.addLast(node);
+                break;
+        }
+    }
+
+    @Override
+    public void recordInsertion(int key) {
+        sketch.increment(key);
+
+        Node node = new Node(key);
+        nodes.put(key, node);
+        window.addLast(node);
+
+        // least recently used window entry becomes a candidate for main region
+        if (window.size > maxWindow) {
+            candidate = window.first();
+            window.remove(candidate);
+            probation.addLast(candidate);
+        }
+    }
+
+    @Override
+    public int selectVictim() {
+        Node victim;
+
+        if (probation.size > 0) {
+            // candidate competes with probation's LRU entry, demoted protected entries are never candidates
+            Node probationLru = probation.first();
+
+            if (candidate == null || candidate == probationLru) {
+                victim = probationLru;
+            } else {
+                victim = sketch.frequency(candidate.key) > sketch.frequency(probationLru.key)
+                        ? probationLru : candidate;
+            }
+            probation.remove(victim);
+            candidate = null;
+        } else if (protectedRegion.size > 0) {
+            victim = protectedRegion.first();
+            protectedRegion.remove(victim);
+        } else {
+            victim = window.first();
+            window.remove(victim);
+        }
+
+        nodes.remove(victim.key);
+
+        return victim.key;
+    }
+
+    @Override
+    public void recordRemoval(int key) {
+        Node node = nodes.remove(key);
+        if (node == null) {
+            return;
+        }
+
+        if (node == candidate) {
+            candidate = null;
+        }
+
+        if (node.region == WINDOW) {
+            window.remove(node);
+        } else if (node.region == PROBATION) {
+            probation.remove(node);
+        } else {
+            protectedRegion.remove(node);
+        }
+    }
+
+    public static void main(String[] args) {
+
+        int capacity = 100;
+        LRUCache cache = new LRUCache(capacity, new WTinyLfuPolicy(capacity));
+
+        // hot set used over and over
+        for (int round = 0; round < 10; round++) {
+            for (int key = 0; key < 50; key++) {
+                if (cache.get(key) == -1) {
+                    cache.put(key, key);
+                }
+            }
+        }
+
+        // one sequential scan which is much larger than cache
+        for (int key = 1000; key < 2000; key++) {
+            if (cache.get(key) == -1) {
+                cache.put(key, key);
+            }
+        }
+
+        int hits = 0;
+        for (int key = 0; key < 50; key++) {
+            if (cache.get(key) != -1) {
+                hits++;
+            }
+        }
+
+        System.out.println("Hot keys still cached after scan: " + hits + " of 50");
+    }
+}